@@ -1,5 +1,6 @@
 package ca.concordia;
 
+import ca.concordia.load.LoadGenerator;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
@@ -11,6 +12,16 @@ import java.util.Scanner;
 // then press Enter. You can now see whitespace characters in your code.
 public class Main {
     public static void main(String[] args) {
+        //"load" runs the load generator instead of the interactive client, configured with -Dload.* properties
+        if (args.length > 0 && args[0].equalsIgnoreCase("load")) {
+            try {
+                LoadGenerator.fromSystemProperties().run();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+
         //Socket CLient
         System.out.println("Hello and welcome!");
         Scanner scanner = new Scanner(System.in);
@@ -0,0 +1,283 @@
+package ca.concordia.client;
+
+//Thread-safe client for the server's text protocol over a pool of kept-alive connections
+//Each call reserves a slot on the least busy open connection until its response arrives; a new connection
+//is opened (outside the pool lock) while all are busy and the pool is below maxConnections, otherwise
+//requests are pipelined up to maxInFlight per connection and callers wait beyond that. Broken connections are dropped and replaced on demand; requests are never retried, since a
+//WRITE or DELETE may already have run. File content travels as one text line, so it cannot contain newlines
+//The *All methods send one batch command for many files; the server applies it under a single commit
+//
+//  try (FileServiceClient client = new FileServiceClient("localhost", 12345, 4, 32)) {
+//      client.create("a");
+//      client.write("a", "hello");
+//      client.readAsync("a").thenAccept(System.out::println);
+//  }
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+public class FileServiceClient implements AutoCloseable {
+
+    private final String host;
+    private final int port;
+    private final int maxConnections;
+    private final int maxInFlight;
+    private final int connectTimeoutMillis;
+
+    //Guarded by this: open connections with their reserved slots, and connections being opened
+    private final Map<PooledConnection, Integer> pool = new LinkedHashMap<>();
+    private int connecting;
+    private boolean closed;
+
+    public FileServiceClient(String host, int port, int maxConnections, int maxInFlight) {
+        this(host, port, maxConnections, maxInFlight, 5000);
+    }
+
+    public FileServiceClient(String host, int port, int maxConnections, int maxInFlight, int connectTimeoutMillis) {
+        if (maxConnections <= 0 || maxInFlight <= 0) throw new IllegalArgumentException("Pool needs at least one connection and one request");
+        this.host = host;
+        this.port = port;
+        this.maxConnections = maxConnections;
+        this.maxInFlight = maxInFlight;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    //-Dclient.host, -Dclient.port, -Dclient.connections, -Dclient.pipeline (requests in flight per connection)
+    public static FileServiceClient fromSystemProperties() {
+        return new FileServiceClient(System.getProperty("client.host", "localhost"),
+                Integer.getInteger("client.port", 12345),
+                Integer.getInteger("client.connections", 4),
+                Integer.getInteger("client.pipeline", 32));
+    }
+
+    //  Blocking calls
+
+    public void create(String name) throws IOException {
+        await(createAsync(name));
+    }
+
+    public String read(String name) throws IOException {
+        return await(readAsync(name));
+    }
+
+    public void write(String name, String content) throws IOException {
+        await(writeAsync(name, content));
+    }
+
+    public void delete(String name) throws IOException {
+        await(deleteAsync(name));
+    }
+
+    public List<String> list() throws IOException {
+        return await(listAsync());
+    }
+
+    //Failures by name (e.g. already exists); empty when every file was created
+    public Map<String, String> createAll(Collection<String> names) throws IOException {
+        return await(createAllAsync(names));
+    }
+
+    //Content by name; files that could not be read are left out
+    public Map<String, String> readAll(Collection<String> names) throws IOException {
+        return await(readAllAsync(names));
+    }
+
+    //Failures by name; empty when every file was written
+    public Map<String, String> writeAll(Map<String, String> contents) throws IOException {
+        return await(writeAllAsync(contents));
+    }
+
+    //  Pipelined calls; a server error completes the future with a FileServiceException
+
+    public CompletableFuture<Void> createAsync(String name) {
+        return call("CREATE " + checkName(name)).thenApply(r -> null);
+    }
+
+    public CompletableFuture<String> readAsync(String name) {
+        return call("READ " + checkName(name)).thenApply(FileServiceClient::body);
+    }
+
+    public CompletableFuture<Void> writeAsync(String name, String content) {
+        if (content.indexOf('\n') >= 0 || content.indexOf('\r') >= 0)
+            return CompletableFuture.failedFuture(new IllegalArgumentException("content cannot contain line breaks"));
+        return call("WRITE " + checkName(name) + " " + content).thenApply(r -> null);
+    }
+
+    public CompletableFuture<Void> deleteAsync(String name) {
+        return call("DELETE " + checkName(name)).thenApply(r -> null);
+    }
+
+    public CompletableFuture<List<String>> listAsync() {
+        return call("LIST").thenApply(r -> {
+            String names = body(r);
+            return names.isEmpty() ? List.of() : Arrays.asList(names.split(","));
+        });
+    }
+
+    public CompletableFuture<Map<String, String>> createAllAsync(Collection<String> names) {
+        List<String> order = new ArrayList<>(names);
+        StringBuilder line = new StringBuilder("MCREATE");
+        for (String name : order) line.append(' ').append(checkName(name));
+        return call(line.toString()).thenApply(r -> failures(order, r));
+    }
+
+    public CompletableFuture<Map<String, String>> readAllAsync(Collection<String> names) {
+        List<String> order = new ArrayList<>(names);
+        StringBuilder line = new StringBuilder("MREAD");
+        for (String name : order) line.append(' ').append(checkName(name));
+        return call(line.toString()).thenApply(r -> {
+            Map<String, String> contents = new LinkedHashMap<>();
+            List<String> items = items(r);
+            for (int i = 0; i < order.size(); i++)
+                if (items.get(i).startsWith("OK")) contents.put(order.get(i), body(items.get(i)));
+            return contents;
+        });
+    }
+
+    public CompletableFuture<Map<String, String>> writeAllAsync(Map<String, String> contents) {
+        List<String> order = new ArrayList<>(contents.keySet());
+        StringBuilder line = new StringBuilder("MWRITE");
+        for (String name : order) {
+            String content = contents.get(name);
+            if (content.indexOf('\n') >= 0 || content.indexOf('\r') >= 0)
+                return CompletableFuture.failedFuture(new IllegalArgumentException("content cannot contain line breaks"));
+            line.append(' ').append(checkName(name)).append(' ').append(content.length()).append(' ').append(content);
+        }
+        return call(line.toString()).thenApply(r -> failures(order, r));
+    }
+
+    //Sends a raw command line and completes with the "OK ..." response; a batch command's item lines
+    //follow its first line, separated by '\n'
+    public CompletableFuture<String> call(String line) {
+        PooledConnection c;
+        try {
+            c = acquire();
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        String cmd = line.split(" ", 2)[0].toUpperCase();
+        boolean batch = cmd.equals("MCREATE") || cmd.equals("MREAD") || cmd.equals("MWRITE");
+        return c.send(line, batch).whenComplete((r, e) -> release(c)).thenApply(r -> {
+            if (!r.startsWith("OK")) throw new CompletionException(new FileServiceException(r));
+            return r;
+        });
+    }
+
+    //  Pool
+
+    //Returns a connection with one of its slots reserved for the caller; release() gives it back
+    private PooledConnection acquire() throws IOException {
+        synchronized (this) {
+            while (true) {
+                if (closed) throw new IOException("client closed");
+                pool.keySet().removeIf(c -> !c.isOpen());
+
+                PooledConnection best = null;
+                for (Map.Entry<PooledConnection, Integer> e : pool.entrySet())
+                    if (best == null || e.getValue() < pool.get(best)) best = e.getKey();
+                if ((best == null || pool.get(best) > 0) && pool.size() + connecting < maxConnections) {
+                    connecting++;
+                    break;
+                }
+                if (best != null && pool.get(best) < maxInFlight) {
+                    pool.merge(best, 1, Integer::sum);
+                    return best;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted waiting for a connection");
+                }
+            }
+        }
+
+        //Connecting can take up to connectTimeoutMillis; other callers and responses carry on meanwhile
+        PooledConnection c;
+        try {
+            c = new PooledConnection(host, port, connectTimeoutMillis);
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                connecting--;
+                notifyAll();
+            }
+            throw e;
+        }
+        synchronized (this) {
+            connecting--;
+            notifyAll();
+            if (!closed) {
+                pool.put(c, 1);
+                return c;
+            }
+        }
+        c.close();
+        throw new IOException("client closed");
+    }
+
+    //A request finished or failed: its slot is free again
+    private synchronized void release(PooledConnection c) {
+        pool.computeIfPresent(c, (k, n) -> n - 1);
+        notifyAll();
+    }
+
+    public synchronized int openConnections() {
+        pool.keySet().removeIf(c -> !c.isOpen());
+        return pool.size();
+    }
+
+    @Override
+    public void close() {
+        List<PooledConnection> open;
+        synchronized (this) {
+            closed = true;
+            open = new ArrayList<>(pool.keySet());
+            pool.clear();
+            notifyAll();
+        }
+        for (PooledConnection c : open) c.close();
+    }
+
+    private static String checkName(String name) {
+        if (name == null || name.isEmpty() || name.contains(" ") || name.indexOf('\n') >= 0)
+            throw new IllegalArgumentException("Bad file name: " + name);
+        return name;
+    }
+
+    //Item lines of a batch response, after its "OK n" line
+    private static List<String> items(String response) {
+        String[] lines = response.split("\n", -1);
+        return Arrays.asList(lines).subList(1, lines.length);
+    }
+
+    private static Map<String, String> failures(List<String> names, String response) {
+        Map<String, String> failed = new LinkedHashMap<>();
+        List<String> items = items(response);
+        for (int i = 0; i < names.size(); i++)
+            if (!items.get(i).startsWith("OK")) failed.put(names.get(i), items.get(i));
+        return failed;
+    }
+
+    //Text after "OK "
+    private static String body(String response) {
+        return response.length() > 3 ? response.substring(3) : "";
+    }
+
+    private static <T> T await(CompletableFuture<T> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for the server");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package ca.concordia.client;
+
+import java.io.IOException;
+
+//The server answered with an error line, e.g. "ERROR: file a does not exist"
+public class FileServiceException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public FileServiceException(String message) {
+        super(message);
+    }
+}
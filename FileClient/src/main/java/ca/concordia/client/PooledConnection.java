@@ -0,0 +1,124 @@
+package ca.concordia.client;
+
+//One kept-alive socket to the server. Requests are pipelined: a command is written as soon as it is
+//submitted and its future joins a FIFO; the server answers in order, and a reader thread completes the
+//futures as the lines arrive, so callbacks run on that thread and must not block on this connection.
+//A read or write failure fails everything in flight and retires the connection
+//Batch commands are answered with "OK n" and n more lines; their future gets all of them, joined with '\n'
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+
+class PooledConnection {
+
+    private final Socket socket;
+    private final BufferedReader in;
+    private final Writer out;
+
+    //Guarded by this
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private boolean closed;
+
+    PooledConnection(String host, int port, int connectTimeoutMillis) throws IOException {
+        socket = new Socket();
+        socket.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+        socket.setTcpNoDelay(true);
+        socket.setKeepAlive(true);
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+
+        Thread reader = new Thread(this::readResponses, "fs-client-" + socket.getLocalPort());
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private static final class Pending {
+        final CompletableFuture<String> response = new CompletableFuture<>();
+        final boolean batch;
+
+        Pending(boolean batch) {
+            this.batch = batch;
+        }
+    }
+
+    //Sends one command line; the future completes with the response line(s)
+    CompletableFuture<String> send(String line, boolean batch) {
+        Pending p = new Pending(batch);
+        CompletableFuture<String> response = p.response;
+        IOException failed = null;
+        synchronized (this) {
+            if (closed) {
+                response.completeExceptionally(new IOException("connection closed"));
+                return response;
+            }
+            pending.add(p);
+            try {
+                out.write(line);
+                out.write('\n');
+                out.flush();
+            } catch (IOException e) {
+                failed = e;
+            }
+        }
+        if (failed != null) fail(failed);
+        return response;
+    }
+
+    synchronized boolean isOpen() {
+        return !closed;
+    }
+
+    private void readResponses() {
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                Pending next;
+                synchronized (this) {
+                    next = pending.poll();
+                }
+                if (next == null) throw new IOException("unexpected response: " + line);
+                if (next.batch && line.startsWith("OK ")) line = readItems(line);
+                next.response.complete(line);
+            }
+            fail(new IOException("server closed the connection"));
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private String readItems(String first) throws IOException {
+        int count;
+        try {
+            count = Integer.parseInt(first.substring(3).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("bad batch response: " + first);
+        }
+        StringBuilder all = new StringBuilder(first);
+        for (int i = 0; i < count; i++) {
+            String item = in.readLine();
+            if (item == null) throw new IOException("server closed the connection");
+            all.append('\n').append(item);
+        }
+        return all.toString();
+    }
+
+    //Fails every request in flight; nothing more is accepted
+    private void fail(IOException cause) {
+        ArrayDeque<Pending> lost;
+        synchronized (this) {
+            closed = true;
+            lost = new ArrayDeque<>(pending);
+            pending.clear();
+        }
+        try { socket.close(); } catch (IOException ignored) {}
+        for (Pending p : lost) p.response.completeExceptionally(cause);
+    }
+
+    void close() {
+        fail(new IOException("client closed"));
+    }
+}
@@ -0,0 +1,68 @@
+package ca.concordia.load;
+
+//Log-linear latency histogram in the style of HdrHistogram: exact below 128, above that every power of two
+//is split into 64 buckets, so any recorded value is reported within 1.6% using a fixed 30 KB of counters
+//Not thread safe; each connection records into its own and they are merged for the report
+
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 64;
+    private static final int LINEAR = 2 * SUB_BUCKETS;
+    private static final int SHIFTS = 63 - 6;
+
+    private final long[] counts = new long[LINEAR + SHIFTS * SUB_BUCKETS];
+    private long total, max, sum;
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts[index(value)]++;
+        total++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) counts[i] += other.counts[i];
+        total += other.total;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    public long count() {
+        return total;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    public double mean() {
+        return total == 0 ? 0 : (double) sum / total;
+    }
+
+    //Highest value that falls in the same bucket as the requested percentile (0-100)
+    public long percentile(double p) {
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(p / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(highestInBucket(i), max);
+        }
+        return max;
+    }
+
+    static int index(long value) {
+        if (value < LINEAR) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+        int sub = (int) (value >>> shift);                  //64..127
+        return LINEAR + (shift - 1) * SUB_BUCKETS + sub - SUB_BUCKETS;
+    }
+
+    static long highestInBucket(int index) {
+        if (index < LINEAR) return index;
+        int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+        long sub = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,253 @@
+package ca.concordia.load;
+
+//Drives the server's text protocol from many connections and reports latency percentiles and throughput
+//Closed loop (load.rate=0): each connection sends its next request as soon as the previous one is answered
+//Open loop (load.rate > 0): requests are scheduled at a fixed total rate spread over the connections and
+//latency is measured from the scheduled send time, so a stalled server is charged for the requests that
+//queued up behind the stall (coordinated-omission correction). Service time, measured from the actual send,
+//is reported alongside for comparison
+//Each connection works on its own files (L<conn>_<n>), so runs do not interfere with other clients' data
+//The default sizes need a server volume larger than the original 16 x 8 KB one, e.g. -Dfs.blockSize=4096 -Dfs.size=67108864
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+public class LoadGenerator {
+
+    private final String host;
+    private final int port;
+    private final int connections;
+    private final long durationNanos, warmupNanos;
+    private final double rate;
+    private final Workload workload;
+    private final int files;
+    private final long seed;
+
+    public LoadGenerator(String host, int port, int connections, long durationSeconds, long warmupSeconds,
+                         double rate, Workload workload, int files, long seed) {
+        if (connections <= 0 || files <= 0) throw new IllegalArgumentException("Need at least one connection and one file");
+        this.host = host;
+        this.port = port;
+        this.connections = connections;
+        this.durationNanos = TimeUnit.SECONDS.toNanos(durationSeconds);
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(warmupSeconds);
+        this.rate = rate;
+        this.workload = workload;
+        this.files = files;
+        this.seed = seed;
+    }
+
+    //-Dload.host, -Dload.port, -Dload.connections, -Dload.duration and -Dload.warmup (seconds),
+    //-Dload.rate (total ops/s, 0 = closed loop), -Dload.mix, -Dload.sizes (see Workload),
+    //-Dload.files (files per connection), -Dload.seed
+    public static LoadGenerator fromSystemProperties() {
+        return new LoadGenerator(
+                System.getProperty("load.host", "localhost"),
+                Integer.getInteger("load.port", 12345),
+                Integer.getInteger("load.connections", 8),
+                Long.getLong("load.duration", 30),
+                Long.getLong("load.warmup", 5),
+                Double.parseDouble(System.getProperty("load.rate", "0")),
+                new Workload(System.getProperty("load.mix", "read=70,write=20,create=5,delete=5"),
+                        System.getProperty("load.sizes", "64:50,4096:40,65536:10")),
+                Integer.getInteger("load.files", 4),
+                Long.getLong("load.seed", 42));
+    }
+
+    //Per connection results, merged once every connection is done
+    static class Stats {
+        final Map<Workload.Op, LatencyHistogram> latency = new EnumMap<>(Workload.Op.class);
+        final LatencyHistogram service = new LatencyHistogram();
+        long errors;
+        String failure;
+
+        Stats() {
+            for (Workload.Op op : Workload.Op.values()) latency.put(op, new LatencyHistogram());
+        }
+    }
+
+    public void run() throws Exception {
+        boolean open = rate > 0;
+        System.out.printf("Load: %d connections to %s:%d, %s, %d s (+%d s warmup)%n", connections, host, port,
+                open ? String.format("open loop at %.0f ops/s", rate) : "closed loop",
+                TimeUnit.NANOSECONDS.toSeconds(durationNanos), TimeUnit.NANOSECONDS.toSeconds(warmupNanos));
+
+        List<Connection> conns = new ArrayList<>();
+        for (int c = 0; c < connections; c++) conns.add(new Connection(c));
+        for (Connection c : conns) c.prepare();
+
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        List<Thread> threads = new ArrayList<>();
+        for (Connection c : conns) {
+            Thread t = new Thread(() -> c.drive(start), "load-" + c.id);
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) t.join();
+        for (Connection c : conns) c.close();
+
+        Stats total = new Stats();
+        for (Connection c : conns) {
+            for (Workload.Op op : Workload.Op.values()) total.latency.get(op).add(c.stats.latency.get(op));
+            total.service.add(c.stats.service);
+            total.errors += c.stats.errors;
+            if (c.stats.failure != null) System.out.println("Connection " + c.id + " failed: " + c.stats.failure);
+        }
+        report(total);
+    }
+
+    private void report(Stats stats) {
+        LatencyHistogram all = new LatencyHistogram();
+        for (LatencyHistogram h : stats.latency.values()) all.add(h);
+        double seconds = durationNanos / 1e9;
+        System.out.printf("Throughput: %.1f ops/s (%d ops, %d errors)%n", all.count() / seconds, all.count(), stats.errors);
+        System.out.printf("%-8s %10s %10s %10s %10s %10s %10s   (latency in us)%n", "", "count", "mean", "p50", "p99", "p99.9", "max");
+        for (Map.Entry<Workload.Op, LatencyHistogram> e : stats.latency.entrySet())
+            if (e.getValue().count() > 0) row(e.getKey().name(), e.getValue());
+        row("ALL", all);
+        if (rate > 0) row("service", stats.service);
+    }
+
+    private static void row(String label, LatencyHistogram h) {
+        System.out.printf("%-8s %10d %10.0f %10d %10d %10d %10d%n", label, h.count(), h.mean(),
+                h.percentile(50), h.percentile(99), h.percentile(99.9), h.max());
+    }
+
+    private class Connection {
+        final int id;
+        final Random rnd;
+        final Stats stats = new Stats();
+        final boolean[] present = new boolean[2 * files];   //the second half starts out absent for CREATE
+        final Map<Integer, String> payloads = new HashMap<>();
+        Socket socket;
+        BufferedReader in;
+        PrintWriter out;
+
+        Connection(int id) {
+            this.id = id;
+            this.rnd = new Random(seed + id);
+        }
+
+        void prepare() throws IOException {
+            socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            out = new PrintWriter(socket.getOutputStream(), true);
+            for (int f = 0; f < present.length; f++) {
+                call("DELETE " + name(f));                        //left over from an earlier run
+                if (f < files) {
+                    expectOk(call("CREATE " + name(f)));
+                    expectOk(call("WRITE " + name(f) + " " + payload(workload.nextSize(rnd))));
+                    present[f] = true;
+                }
+            }
+        }
+
+        void drive(long start) {
+            long interval = rate > 0 ? (long) (connections * 1e9 / rate) : 0;
+            long intended = start + (interval * id) / connections;    //staggered so sends do not line up
+            long end = start + warmupNanos + durationNanos;
+            long measureFrom = start + warmupNanos;
+            try {
+                while (true) {
+                    long now = System.nanoTime();
+                    if (interval > 0) {
+                        if (intended >= end) break;
+                        while (now < intended) {
+                            LockSupport.parkNanos(intended - now);
+                            now = System.nanoTime();
+                        }
+                    } else {
+                        if (now >= end) break;
+                        intended = now;
+                    }
+                    Workload.Op op = workload.nextOp(rnd);
+                    long sent = System.nanoTime();
+                    op = perform(op);
+                    long done = System.nanoTime();
+                    if (intended >= measureFrom) {
+                        stats.latency.get(op).record((done - intended) / 1000);
+                        stats.service.record((done - sent) / 1000);
+                    }
+                    intended += interval;
+                }
+            } catch (IOException e) {
+                stats.failure = e.getMessage();
+            }
+        }
+
+        //Returns the operation actually sent: CREATE and DELETE swap when no file is in the state they need
+        Workload.Op perform(Workload.Op op) throws IOException {
+            int live = 0;
+            for (boolean p : present) if (p) live++;
+            if (op == Workload.Op.CREATE && live == present.length) op = Workload.Op.DELETE;
+            else if (op == Workload.Op.DELETE && live <= 1) op = Workload.Op.CREATE;
+
+            String response;
+            switch (op) {
+                case CREATE: {
+                    int f = pick(false);
+                    response = call("CREATE " + name(f));
+                    if (response.startsWith("OK")) present[f] = true;
+                    break;
+                }
+                case DELETE: {
+                    int f = pick(true);
+                    response = call("DELETE " + name(f));
+                    if (response.startsWith("OK")) present[f] = false;
+                    break;
+                }
+                case WRITE:
+                    response = call("WRITE " + name(pick(true)) + " " + payload(workload.nextSize(rnd)));
+                    break;
+                default:
+                    response = call("READ " + name(pick(true)));
+            }
+            if (!response.startsWith("OK")) stats.errors++;
+            return op;
+        }
+
+        int pick(boolean wanted) {
+            int f = rnd.nextInt(present.length);
+            while (present[f] != wanted) f = (f + 1) % present.length;
+            return f;
+        }
+
+        String name(int f) {
+            return "L" + id + "_" + f;
+        }
+
+        String payload(int size) {
+            return payloads.computeIfAbsent(size, n -> {
+                char[] chars = new char[n];
+                for (int i = 0; i < n; i++) chars[i] = (char) ('a' + i % 26);
+                return new String(chars);
+            });
+        }
+
+        String call(String command) throws IOException {
+            out.println(command);
+            String response = in.readLine();
+            if (response == null) throw new IOException("server closed the connection");
+            return response;
+        }
+
+        void expectOk(String response) throws IOException {
+            if (!response.startsWith("OK")) throw new IOException("setup failed: " + response);
+        }
+
+        void close() {
+            try {
+                out.println("QUIT");
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package ca.concordia.load;
+
+//What the load generator sends: an operation mix and a file-size distribution, both weighted
+//  mix   read=70,write=20,create=5,delete=5
+//  sizes 64:50,4096:40,65536:10     (bytes:weight)
+
+import java.util.Random;
+
+public class Workload {
+
+    public enum Op { READ, WRITE, CREATE, DELETE }
+
+    private final double[] opWeights = new double[Op.values().length];
+    private final int[] sizes;
+    private final double[] sizeWeights;
+
+    public Workload(String mix, String sizes) {
+        for (String part : mix.split(",")) {
+            String[] kv = part.trim().split("=");
+            if (kv.length != 2) throw new IllegalArgumentException("Bad mix entry: " + part);
+            opWeights[Op.valueOf(kv[0].trim().toUpperCase()).ordinal()] = Double.parseDouble(kv[1]);
+        }
+        String[] entries = sizes.split(",");
+        this.sizes = new int[entries.length];
+        this.sizeWeights = new double[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            String[] kv = entries[i].trim().split(":");
+            this.sizes[i] = Integer.parseInt(kv[0].trim());
+            this.sizeWeights[i] = kv.length > 1 ? Double.parseDouble(kv[1]) : 1;
+        }
+        if (sum(opWeights) <= 0 || sum(sizeWeights) <= 0)
+            throw new IllegalArgumentException("Mix and sizes need a positive weight");
+    }
+
+    public Op nextOp(Random rnd) {
+        return Op.values()[pick(opWeights, rnd)];
+    }
+
+    public int nextSize(Random rnd) {
+        return sizes[pick(sizeWeights, rnd)];
+    }
+
+    private static int pick(double[] weights, Random rnd) {
+        double r = rnd.nextDouble() * sum(weights);
+        for (int i = 0; i < weights.length; i++) {
+            r -= weights[i];
+            if (r < 0) return i;
+        }
+        return weights.length - 1;
+    }
+
+    private static double sum(double[] weights) {
+        double s = 0;
+        for (double w : weights) s += w;
+        return s;
+    }
+}
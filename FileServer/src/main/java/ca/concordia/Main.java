@@ -3,10 +3,31 @@ package ca.concordia;
 import ca.concordia.server.FileServer;
 
 public class Main {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
         System.out.printf("Hello and welcome!");
 
-        FileServer server = new FileServer(12345, "filesystem.dat", 10 * 128);
+        //Volume options, e.g. -Dfs.size=4294967296 -Dfs.blockSize=4096 -Dfs.maxFiles=65536
+        //Without fs.blockSize the original 16 files x 64 blocks of 128 bytes layout is used
+        //-Dfs.storage=raf|mmap|direct|memory picks the block device behind the volume
+        //New volumes get a metadata journal, checkpointed under pressure or every -Dfs.journal.checkpointMs
+        //-Dfs.durability=none|per-op|group: when an acknowledged write is on disk (group: -Dfs.durability.intervalMicros, -Dfs.durability.batch)
+        //Freed blocks are zeroed in the background at -Dfs.scrub.rate bytes/s (0 leaves them as they are)
+        //-Dfs.cache.blocks=N puts an N-block cache in front of it (-Dfs.cache.mode=write-through|write-back)
+        //-Dfs.server.frontend=blocking|nio selects the socket front end (nio: -Dfs.server.loops event loops)
+        //Connections: -Dfs.server.mode=thread|pool|virtual, -Dfs.server.threads, -Dfs.server.queue, -Dfs.server.maxConnections
+        //Per-command latency, I/O and lock figures: the STATS command, or JMX bean ca.concordia:type=FileServer,port=12345
+        String fsName = System.getProperty("fs.file", "filesystem.dat");
+        long totalSize = Long.getLong("fs.size", 10 * 128);
+        Integer blockSize = Integer.getInteger("fs.blockSize");
+
+        FileServer server = blockSize == null
+                ? new FileServer(12345, fsName, (int) totalSize)
+                : new FileServer(12345, fsName, totalSize, blockSize, Integer.getInteger("fs.maxFiles", 1024));
+        //On SIGTERM/Ctrl-C finish in-flight requests and flush the volume before exiting
+        long grace = Long.getLong("fs.server.shutdownGrace", 5000);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try { server.stop(grace); } catch (Exception ignored) {}
+        }));
         // Start the file server
         server.start();
     }
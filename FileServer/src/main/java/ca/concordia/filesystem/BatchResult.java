@@ -0,0 +1,31 @@
+package ca.concordia.filesystem;
+
+//Outcome of one item of a batch call: the file's content for reads (empty for mutations), or the error
+//that item ran into. One item failing does not stop the others
+public final class BatchResult {
+
+    private static final byte[] EMPTY = new byte[0];
+    static final BatchResult OK = new BatchResult(EMPTY, null);
+
+    private final byte[] data;
+    private final String error;
+
+    private BatchResult(byte[] data, String error) {
+        this.data = data;
+        this.error = error;
+    }
+
+    static BatchResult of(byte[] data) {
+        return new BatchResult(data, null);
+    }
+
+    static BatchResult failed(String error) {
+        return new BatchResult(null, error);
+    }
+
+    public boolean isOk() { return error == null; }
+
+    public byte[] getData() { return data; }
+
+    public String getError() { return error; }
+}
@@ -0,0 +1,238 @@
+package ca.concordia.filesystem;
+
+//Returns released data blocks to the allocator once the commit that released them is durable, then
+//zeroes them in the background so old file content does not linger on the volume
+//A released extent stays allocated until a device flush has covered the commit that detached it: until
+//then a crash brings the old file back pointing at those blocks, so neither zeros nor a new owner's data
+//may reach them. One flush covers every release queued before it. A throttled thread later zeroes
+//whatever part of the extents is still free, holding the allocator lock for one small chunk at a time so
+//a block can never be handed out while it is being zeroed. Blocks reused before their turn are skipped:
+//their new owner overwrites them anyway. Nothing depends on free blocks being zero, so scrubbing is
+//only about not leaving deleted data behind and can be turned off; the deferred release cannot
+
+import ca.concordia.filesystem.datastructures.ExtentAllocator;
+import ca.concordia.filesystem.datastructures.Superblock;
+import ca.concordia.filesystem.device.BlockDevice;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+public class BlockScrubber {
+
+    //Blocks zeroed per allocator lock hold
+    private static final int CHUNK = 16;
+
+    private final BlockDevice device;
+    private final Superblock sb;
+    private final ExtentAllocator blocks;
+    private final Lock allocLock;
+    private final long bytesPerSecond;
+
+    //Guarded by this
+    private final ArrayDeque<int[]> releases = new ArrayDeque<>();
+    private final ArrayDeque<int[]> queue = new ArrayDeque<>();
+    private long pendingBlocks;
+    private int releasing;
+    private long freedBatches;
+    private Thread worker;
+    private boolean closed;
+
+    private long scrubbed, skipped;
+
+    //bytesPerSecond == 0 disables scrubbing: freed blocks keep their old bytes until reused
+    public BlockScrubber(BlockDevice device, Superblock sb, ExtentAllocator blocks, Lock allocLock, long bytesPerSecond) {
+        this.device = device;
+        this.sb = sb;
+        this.blocks = blocks;
+        this.allocLock = allocLock;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    //-Dfs.scrub.rate in bytes per second (default 16 MB/s, 0 disables)
+    public static BlockScrubber fromSystemProperties(BlockDevice device, Superblock sb, ExtentAllocator blocks, Lock allocLock) {
+        return new BlockScrubber(device, sb, blocks, allocLock, Long.getLong("fs.scrub.rate", 16L * 1024 * 1024));
+    }
+
+    public boolean isEnabled() {
+        return bytesPerSecond > 0;
+    }
+
+    //Queues an extent that is already free in the allocator for zeroing
+    public synchronized void add(int start, int length) {
+        if (!isEnabled() || closed || length <= 0) return;
+        queue.add(new int[]{start, length});
+        pendingBlocks += length;
+        startWorker();
+    }
+
+    //Takes an extent, still marked used in the allocator, that a commit has just detached from its file;
+    //it is freed only after a later flush. Once closed, releases wait for reclaim() or the next mount
+    public synchronized void release(int start, int length) {
+        if (length <= 0) return;
+        releases.add(new int[]{start, length});
+        pendingBlocks += length;
+        if (!closed) startWorker();
+    }
+
+    private void startWorker() {
+        if (worker == null) {
+            worker = new Thread(this::run, "fs-scrubber");
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    //Batches handed back to the allocator so far; an allocation reads it before it tries
+    public synchronized long reclaimed() {
+        return freedBatches;
+    }
+
+    //Flushes, then frees every release queued so far. Called by the worker, and by an allocation that failed:
+    //true when space came back since it read reclaimed() == seen, including batches another thread freed
+    //in between, so the allocation is worth retrying
+    public boolean reclaim(long seen) throws IOException {
+        List<int[]> batch;
+        synchronized (this) {
+            if (releases.isEmpty()) {
+                try {
+                    while (releasing > 0) wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return freedBatches != seen;
+            }
+            batch = new ArrayList<>(releases);
+            releases.clear();
+            releasing++;
+        }
+        boolean freed = false;
+        try {
+            //Every commit that detached one of these extents was written before it was queued
+            device.flush();
+            allocLock.lock();
+            try {
+                for (int[] ext : batch) blocks.free(ext[0], ext[1]);
+            } finally {
+                allocLock.unlock();
+            }
+            freed = true;
+        } finally {
+            synchronized (this) {
+                releasing--;
+                if (freed) freedBatches++;
+                for (int[] ext : batch) {
+                    //A failed flush leaves the blocks allocated; the next mount reclaims them
+                    if (freed && isEnabled() && !closed) queue.add(ext);
+                    else pendingBlocks -= ext[1];
+                }
+                notifyAll();
+            }
+        }
+        return true;
+    }
+
+    //The thread lives only while there is work queued
+    private void run() {
+        ByteBuffer zeros = ByteBuffer.allocate(CHUNK * sb.getBlockSize());
+        int[] ext = null;
+        int done = 0;
+        try {
+            while (true) {
+                reclaim(0);
+                synchronized (this) {
+                    ext = closed ? null : queue.poll();
+                    done = 0;
+                    if (ext == null) {
+                        if (!closed && !releases.isEmpty()) continue;
+                        worker = null;
+                        notifyAll();
+                        return;
+                    }
+                }
+                while (done < ext[1]) {
+                    reclaim(0);
+                    int n = Math.min(CHUNK, ext[1] - done);
+                    int zeroed = scrub(ext[0] + done, n, zeros);
+                    done += n;
+                    synchronized (this) {
+                        pendingBlocks -= n;
+                        scrubbed += zeroed;
+                        skipped += n - zeroed;
+                        //Woken early by close(); never interrupted, which would close a FileChannel mid-flush
+                        if (zeroed > 0 && !closed)
+                            TimeUnit.NANOSECONDS.timedWait(this, (long) zeroed * sb.getBlockSize() * 1_000_000_000L / bytesPerSecond);
+                        if (closed) break;
+                    }
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            //Scrubbing is best effort; the blocks stay as they are and remain usable. Releases stay queued
+            //for reclaim()
+            synchronized (this) {
+                if (ext != null) pendingBlocks -= ext[1] - done;
+                for (int[] q : queue) pendingBlocks -= q[1];
+                queue.clear();
+                worker = null;
+                notifyAll();
+            }
+        }
+    }
+
+    //Zeroes the blocks of [start, start + count) that are still free; returns how many
+    private int scrub(int start, int count, ByteBuffer zeros) throws IOException {
+        int zeroed = 0;
+        allocLock.lock();
+        try {
+            int b = start, end = start + count;
+            while (b < end) {
+                if (blocks.isUsed(b)) { b++; continue; }
+                int run = b;
+                while (b < end && !blocks.isUsed(b)) b++;
+                device.write(sb.blockOffset(run), zeros.clear().limit((b - run) * sb.getBlockSize()));
+                zeroed += b - run;
+            }
+        } finally {
+            allocLock.unlock();
+        }
+        return zeroed;
+    }
+
+    //Blocks until everything queued so far has been handled
+    public synchronized void awaitIdle() throws InterruptedException {
+        while (worker != null) wait();
+    }
+
+    //Stops the thread; blocks still queued for zeroing are left as they are
+    public void close() {
+        Thread t;
+        synchronized (this) {
+            closed = true;
+            t = worker;
+            notifyAll();
+        }
+        if (t == null) return;
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //Blocks waiting to be freed or zeroed
+    public synchronized long pendingBlocks() {
+        return pendingBlocks;
+    }
+
+    public synchronized long scrubbedBlocks() {
+        return scrubbed;
+    }
+
+    //Blocks that were reused before the scrubber reached them
+    public synchronized long skippedBlocks() {
+        return skipped;
+    }
+}
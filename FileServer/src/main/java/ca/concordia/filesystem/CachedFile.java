@@ -0,0 +1,37 @@
+package ca.concordia.filesystem;
+
+import java.util.function.Function;
+
+//Immutable snapshot of a whole file as of one version of its FEntry slot
+//The data array is shared with the content cache and must not be modified
+public class CachedFile {
+
+    private final String name;
+    private final long version;
+    private final byte[] data;
+    private volatile byte[] encoded;     //protocol response built from data, memoized on first use
+
+    CachedFile(String name, long version, byte[] data) {
+        this.name = name;
+        this.version = version;
+        this.data = data;
+    }
+
+    public String getName() { return name; }
+
+    public long getVersion() { return version; }
+
+    public byte[] getData() { return data; }
+
+    public int size() { return data.length; }
+
+    //Response bytes for this content, built once by the first caller's encoder
+    public byte[] encoded(Function<byte[], byte[]> encoder) {
+        byte[] e = encoded;
+        if (e == null) {
+            e = encoder.apply(data);
+            encoded = e;
+        }
+        return e;
+    }
+}
@@ -0,0 +1,171 @@
+package ca.concordia.filesystem;
+
+//Makes completed operations durable according to the volume's Durability mode
+//In GROUP mode callers register and wait; a flusher thread issues one device flush for everyone waiting,
+//once the oldest waiter has waited the interval or enough callers have piled up, so a flush costs
+//the same for one operation or a hundred
+
+import ca.concordia.filesystem.device.BlockDevice;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+public class CommitFlusher {
+
+    private final BlockDevice device;
+    private final Durability mode;
+    private final long intervalNanos;
+    private final int maxBatch;
+
+    //Guarded by this
+    private long nextGeneration = 1;        //flush that callers registering now will ride on
+    private long doneGeneration;            //last flush that completed
+    private int waiting;                    //callers registered for nextGeneration
+    private Thread flusher;
+    private boolean closed;
+    private IOException failure;
+
+    //Metrics, guarded by this
+    private long flushes, flushNanos, maxFlushNanos, flushedOps;
+    private int largestBatch;
+
+    public CommitFlusher(BlockDevice device, Durability mode, long intervalMicros, int maxBatch) {
+        this.device = device;
+        this.mode = mode;
+        this.intervalNanos = TimeUnit.MICROSECONDS.toNanos(intervalMicros);
+        this.maxBatch = Math.max(1, maxBatch);
+    }
+
+    //-Dfs.durability, plus for GROUP -Dfs.durability.intervalMicros (default 500) and -Dfs.durability.batch (default 64)
+    public static CommitFlusher fromSystemProperties(BlockDevice device) {
+        return new CommitFlusher(device, Durability.fromSystemProperty(),
+                Long.getLong("fs.durability.intervalMicros", 500), Integer.getInteger("fs.durability.batch", 64));
+    }
+
+    public Durability getMode() {
+        return mode;
+    }
+
+    //Returns once everything the caller wrote before calling is durable (immediately in NONE mode)
+    public void await() throws IOException {
+        switch (mode) {
+            case NONE:
+                return;
+
+            case PER_OP:
+                long start = System.nanoTime();
+                device.flush();
+                record(System.nanoTime() - start, 1);
+                return;
+
+            default:
+                awaitGroup();
+        }
+    }
+
+    private synchronized void awaitGroup() throws IOException {
+        if (closed) {
+            device.flush();
+            return;
+        }
+        if (flusher == null) {
+            flusher = new Thread(this::runFlusher, "fs-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+        long generation = nextGeneration;
+        if (++waiting == 1 || waiting >= maxBatch) notifyAll();
+        while (doneGeneration < generation && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("ERROR: interrupted waiting for flush");
+            }
+        }
+        if (doneGeneration < generation) throw failure;
+    }
+
+    private void runFlusher() {
+        while (true) {
+            long generation;
+            int batch;
+            synchronized (this) {
+                try {
+                    while (waiting == 0 && !closed) wait();
+                    if (waiting == 0) return;
+                    //Give more callers a chance to join, up to the interval or a full batch
+                    long deadline = System.nanoTime() + intervalNanos;
+                    long left;
+                    while (waiting < maxBatch && !closed && (left = deadline - System.nanoTime()) > 0)
+                        TimeUnit.NANOSECONDS.timedWait(this, left);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                generation = nextGeneration++;
+                batch = waiting;
+                waiting = 0;
+            }
+
+            long start = System.nanoTime();
+            IOException error = null;
+            try {
+                device.flush();
+            } catch (IOException e) {
+                error = e;
+            }
+            record(System.nanoTime() - start, batch);
+
+            synchronized (this) {
+                if (error != null) failure = error;
+                else doneGeneration = generation;
+                notifyAll();
+                if (error != null) return;
+            }
+        }
+    }
+
+    private synchronized void record(long nanos, int batch) {
+        flushes++;
+        flushNanos += nanos;
+        maxFlushNanos = Math.max(maxFlushNanos, nanos);
+        flushedOps += batch;
+        largestBatch = Math.max(largestBatch, batch);
+    }
+
+    //Flushes whoever is still waiting and stops the flusher thread
+    public void close() {
+        Thread t;
+        synchronized (this) {
+            closed = true;
+            t = flusher;
+            notifyAll();
+        }
+        if (t == null) return;
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized long flushes() {
+        return flushes;
+    }
+
+    public synchronized double meanFlushMicros() {
+        return flushes == 0 ? 0 : flushNanos / 1000.0 / flushes;
+    }
+
+    public synchronized double maxFlushMicros() {
+        return maxFlushNanos / 1000.0;
+    }
+
+    //Operations made durable per flush
+    public synchronized double meanBatch() {
+        return flushes == 0 ? 0 : (double) flushedOps / flushes;
+    }
+
+    public synchronized int largestBatch() {
+        return largestBatch;
+    }
+}
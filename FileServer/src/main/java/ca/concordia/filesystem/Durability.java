@@ -0,0 +1,13 @@
+package ca.concordia.filesystem;
+
+//When a mutating operation's acknowledgement means it survives a crash
+public enum Durability {
+    NONE,     //whenever the OS and the journal checkpoints get to it; a crash can lose acknowledged operations
+    PER_OP,   //every operation flushes the device before it returns
+    GROUP;    //operations wait for a shared flush issued by a background thread
+
+    //Selected with -Dfs.durability=none|per-op|group, NONE when unset
+    public static Durability fromSystemProperty() {
+        return valueOf(System.getProperty("fs.durability", "none").toUpperCase().replace('-', '_'));
+    }
+}
@@ -0,0 +1,63 @@
+package ca.concordia.filesystem;
+
+import java.util.*;
+
+//Whole-file cache for small hot files, keyed by FEntry slot and bounded by a byte budget (LRU)
+//FileSystemManager bumps the slot version and invalidates on every write/delete, so a hit
+//whose version still matches can be served without locking the file or touching the device
+
+public class FileContentCache {
+
+    private final long budget;
+    private final int maxFileSize;
+    private long used;
+    private long hits;
+    private long misses;
+
+    private final LinkedHashMap<Integer, CachedFile> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    public FileContentCache(long budget, int maxFileSize) {
+        this.budget = budget;
+        this.maxFileSize = maxFileSize;
+    }
+
+    //-Dfs.filecache.bytes (default 16 MB, 0 disables) and -Dfs.filecache.maxFile (default 64 KB)
+    public static FileContentCache fromSystemProperties() {
+        return new FileContentCache(Long.getLong("fs.filecache.bytes", 16L * 1024 * 1024),
+                Integer.getInteger("fs.filecache.maxFile", 64 * 1024));
+    }
+
+    public synchronized CachedFile get(int slot) {
+        CachedFile f = entries.get(slot);
+        if (f == null) misses++;
+        else hits++;
+        return f;
+    }
+
+    //Whether put would keep a file of this size
+    public boolean accepts(int size) {
+        return size <= maxFileSize && size <= budget;
+    }
+
+    public synchronized void put(int slot, CachedFile f) {
+        if (!accepts(f.size())) return;
+        CachedFile old = entries.put(slot, f);
+        if (old != null) used -= old.size();
+        used += f.size();
+
+        Iterator<CachedFile> it = entries.values().iterator();
+        while (used > budget && it.hasNext()) {
+            used -= it.next().size();
+            it.remove();
+        }
+    }
+
+    public synchronized void invalidate(int slot) {
+        CachedFile old = entries.remove(slot);
+        if (old != null) used -= old.size();
+    }
+
+    public synchronized long bytesUsed() { return used; }
+    public synchronized long hits() { return hits; }
+    public synchronized long misses() { return misses; }
+}
@@ -0,0 +1,55 @@
+package ca.concordia.filesystem;
+
+//A file opened for streaming: its extents as device byte ranges, pinned until close()
+//Bytes go from the device to the target channel with BlockDevice.transferTo, never through a byte[]
+
+import ca.concordia.filesystem.device.BlockDevice;
+import java.io.*;
+import java.nio.channels.WritableByteChannel;
+
+public class FileReadHandle implements Closeable {
+
+    private final FileSystemManager fs;
+    private final BlockDevice device;
+    private final int chain;
+    private final long size;
+    private final long[][] runs;     //{device offset, length}
+    private boolean closed;
+
+    FileReadHandle(FileSystemManager fs, BlockDevice device, int chain, long size, long[][] runs) {
+        this.fs = fs;
+        this.device = device;
+        this.chain = chain;
+        this.size = size;
+        this.runs = runs;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    //Sends up to count bytes starting at position of the file; returns the bytes written,
+    //fewer than asked when a non-blocking target is full
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        long done = 0;
+        long runStart = 0;
+        for (long[] run : runs) {
+            long runEnd = runStart + run[1];
+            if (done < count && position + done < runEnd) {
+                long off = position + done - runStart;
+                long n = Math.min(run[1] - off, count - done);
+                long written = device.transferTo(run[0] + off, n, target);
+                done += written;
+                if (written < n) break;
+            }
+            runStart = runEnd;
+        }
+        return done;
+    }
+
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        fs.unpin(chain);
+    }
+}
@@ -4,102 +4,365 @@ package ca.concordia.filesystem;
 //Synchronization so multiple clients can access the file system without data corruption
 
 import ca.concordia.filesystem.datastructures.*;
+import ca.concordia.filesystem.device.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.*;
 
 public class FileSystemManager {
 
-    private static final int BLOCKSIZE = 128;
-    private static final int MAXFILES = 16;
-    private static final int MAXBLOCKS = 64;
+    //Geometry used by the two-argument constructor (the original fixed layout)
+    public static final int DEFAULT_BLOCKSIZE = 128;
+    public static final int DEFAULT_MAXFILES = 16;
+    public static final int DEFAULT_MAXBLOCKS = 64;
+
+    //Upper bound on file lock stripes; small tables get one lock per slot
+    private static final int MAXSTRIPES = 1024;
+
+    private final Superblock sb;
+    private final int blockSize;
+    private final int maxFiles;
+    private final int maxBlocks;
+
+    private final FEntry[] fentries;
+    private final DirectoryIndex directory;                  //name -> slot, guarded by dirLock
+    private final FreeBlockMap entryMap;                     //free FEntry slots, guarded by dirLock
+    private final FNode[] fnodes;                            //extent records, not one per block
+    private final ExtentAllocator blocks;                    //free data blocks
+    private final FreeBlockMap nodeMap;                      //free FNode slots
+
+    //Lock order: file stripe -> dirLock -> allocLock -> metaLock (each one held briefly)
+    private final ReadWriteLock[] fileLocks;                 //striped by FEntry slot
+    private final ReadWriteLock dirLock = new ReentrantReadWriteLock(true);
+    private final Lock allocLock = new ReentrantLock();      //blocks, nodeMap and node hand-off
+    private final Lock metaLock = new ReentrantLock();       //metadata region writes
+
+    //File lock wait and hold times, summed over all acquisitions
+    private final LongAdder lockAcquisitions = new LongAdder();
+    private final LongAdder lockWaitNanos = new LongAdder();
+    private final LongAdder lockHoldNanos = new LongAdder();
+
+    //Records changed since the last saveMetadata(), guarded by metaLock
+    private final BitSet dirtyEntries = new BitSet();
+    private final BitSet dirtyNodes = new BitSet();
+    private final ByteBuffer metaBuf = ByteBuffer.allocate(64 * 1024);
+
+    //Records the calling thread's operation has changed, moved into the sets above only when it saves: a
+    //save by another thread must not journal a record halfway through an operation's updates
+    private final ThreadLocal<Marks> marks = ThreadLocal.withInitial(Marks::new);
+
+    private static final class Marks {
+        final BitSet entries = new BitSet();
+        final BitSet nodes = new BitSet();
+    }
+
+    //Every device call goes through here so it is counted
+    private final MeteredBlockDevice device;
+
+    //Metadata goes through the journal and reaches its home locations at checkpoints; null on version 2
+    //volumes, which update metadata in place
+    private final Journal journal;
+    private final Journal.Batch batch = new Journal.Batch();   //guarded by metaLock
+
+    //Makes each mutating operation durable before it returns, per -Dfs.durability
+    private final CommitFlusher flusher;
 
-    private final FEntry[] fentries = new FEntry[MAXFILES];
-    private final FNode[] fnodes = new FNode[MAXBLOCKS];
+    //Zeroes freed blocks in the background; frees never wait for it
+    private final BlockScrubber scrubber;
 
-    private final ReadWriteLock fsLock = new ReentrantReadWriteLock(true);
+    //Whole-file snapshots; a slot's version changes on every write/delete of the file in it
+    private final FileContentCache contentCache = FileContentCache.fromSystemProperties();
+    private final AtomicLongArray versions;
 
-    private RandomAccessFile disk;
-    private int dataStartBlock;
-    private int metadataBytes;
-    private int metadataBlocks;
+    //Chains held open by FileReadHandles (first node -> readers); releasing a pinned chain waits for the last reader
+    private final HashMap<Integer, Integer> pins = new HashMap<>();
+    private final HashSet<Integer> deferredReleases = new HashSet<>();
 
     public FileSystemManager(String filename, int totalSize) throws Exception {
+        this(filename, new Superblock(DEFAULT_BLOCKSIZE, DEFAULT_MAXFILES, DEFAULT_MAXBLOCKS), totalSize);
+    }
 
-        for (int i = 0; i < MAXFILES; i++) fentries[i] = new FEntry();
-        for (int i = 0; i < MAXBLOCKS; i++) fnodes[i] = new FNode();
+    //Formats a new volume of totalSize bytes with the given block size and file table capacity
+    public FileSystemManager(String filename, long totalSize, int blockSize, int maxFiles) throws Exception {
+        this(filename, Superblock.forVolume(totalSize, blockSize, maxFiles), totalSize);
+    }
 
-        int sizeFEntry = 15;
-        int sizeFNode = 4;
-        metadataBytes = MAXFILES * sizeFEntry + MAXBLOCKS * sizeFNode;
-        metadataBlocks = (int) Math.ceil((double) metadataBytes / BLOCKSIZE);
-        dataStartBlock = metadataBlocks;
+    public FileSystemManager(String filename, Superblock format, long totalSize) throws Exception {
+        this(filename, format, totalSize, StorageMode.fromSystemProperty());
+    }
 
-        disk = new RandomAccessFile(filename, "rw");
+    public FileSystemManager(String filename, Superblock format, long totalSize, StorageMode mode) throws Exception {
+        this(mode.open(filename, format, totalSize), format);
+    }
 
-        if (disk.length() == 0) {
-            disk.setLength(totalSize);
-            saveMetadata();
+    public FileSystemManager(BlockDevice device, Superblock format) throws Exception {
+        this(device, format, CommitFlusher.fromSystemProperties(device));
+    }
+
+    //A device that already holds a volume keeps the geometry in its superblock; format is only used for blank ones
+    public FileSystemManager(BlockDevice device, Superblock format, CommitFlusher flusher) throws Exception {
+        this.device = new MeteredBlockDevice(device);
+        this.flusher = flusher;
+        device = this.device;
+
+        byte[] header = new byte[Superblock.SIZE];
+        device.read(0, ByteBuffer.wrap(header));
+        boolean fresh = isBlank(device, header, format);
+        if (!fresh)
+            format = Superblock.read(new DataInputStream(new ByteArrayInputStream(header)));
+        else if (device.capacity() < format.volumeBytes())
+            throw new Exception("ERROR: device too small for " + format);
+
+        sb = format;
+        blockSize = sb.getBlockSize();
+        maxFiles = sb.getMaxFiles();
+        maxBlocks = sb.getMaxBlocks();
+
+        fentries = new FEntry[maxFiles];
+        directory = new DirectoryIndex(maxFiles);
+        entryMap = new FreeBlockMap(maxFiles);
+        versions = new AtomicLongArray(maxFiles);
+        fnodes = new FNode[maxBlocks];
+        blocks = new ExtentAllocator(maxBlocks);
+        nodeMap = new FreeBlockMap(maxBlocks);
+        fileLocks = new ReadWriteLock[Math.min(maxFiles, MAXSTRIPES)];
+        for (int i = 0; i < fileLocks.length; i++) fileLocks[i] = new ReentrantReadWriteLock(true);
+        for (int i = 0; i < maxFiles; i++) fentries[i] = new FEntry();
+        for (int i = 0; i < maxBlocks; i++) fnodes[i] = new FNode();
+        scrubber = BlockScrubber.fromSystemProperties(device, sb, blocks, allocLock);
+        journal = sb.getJournalBlocks() == 0 ? null
+                : new Journal(device, sb.journalOffset(), (long) sb.getJournalBlocks() * blockSize, blockSize);
+
+        if (fresh) {
+            formatMetadata();
         } else {
+            if (journal != null) journal.recover();
             loadMetadata();
         }
     }
 
-    // MetaData I/O 
+    //Only a device that is all zeros over the metadata region is formatted: a volume whose superblock was lost
+    //still has non-zero records (every FEntry stores a first block of -1), and formatting it would destroy them
+    private static boolean isBlank(BlockDevice device, byte[] header, Superblock format) throws IOException {
+        for (byte b : header)
+            if (b != 0) return false;
+        long end = Math.min(device.capacity(), format.metadataBytes());
+        ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        for (long pos = Superblock.SIZE; pos < end; pos += buf.capacity()) {
+            buf.clear().limit((int) Math.min(buf.capacity(), end - pos));
+            device.read(pos, buf);
+            for (int i = 0; i < buf.position(); i++)
+                if (buf.get(i) != 0)
+                    throw new IOException("ERROR: corrupt volume: the superblock is blank but the metadata is not");
+        }
+        return true;
+    }
 
-    private void saveMetadata() throws IOException {
-        fsLock.writeLock().lock();
+    public Superblock getSuperblock() {
+        return sb;
+    }
+
+    public Journal getJournal() {
+        return journal;
+    }
+
+    public CommitFlusher getFlusher() {
+        return flusher;
+    }
+
+    public BlockScrubber getScrubber() {
+        return scrubber;
+    }
+
+    //Device call and byte counts for the volume
+    public MeteredBlockDevice getDeviceMetrics() {
+        return device;
+    }
+
+    public int freeBlocks() {
+        allocLock.lock();
+        try {
+            return blocks.freeCount();
+        } finally {
+            allocLock.unlock();
+        }
+    }
+
+    public int freeFiles() {
+        dirLock.readLock().lock();
         try {
-            disk.seek(0);
-            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            return entryMap.freeCount();
+        } finally {
+            dirLock.readLock().unlock();
+        }
+    }
+
+    public long lockAcquisitions() { return lockAcquisitions.sum(); }
+    public long lockWaitNanos() { return lockWaitNanos.sum(); }
+    public long lockHoldNanos() { return lockHoldNanos.sum(); }
 
-            for (FEntry e : fentries) writeFEntry(bout, e);
-            for (FNode n : fnodes) writeFNode(bout, n);
+    //Durability point: everything written so far reaches the volume file
+    public void sync() throws IOException {
+        device.flush();
+    }
+
+    public void close() throws IOException {
+        scrubber.close();
+        flusher.close();
+        if (journal != null) journal.close();
+        sync();
+        device.close();
+    }
 
-            byte[] meta = bout.toByteArray();
-            disk.write(meta, 0, meta.length);
+    // MetaData I/O
 
-            int padding = (metadataBlocks * BLOCKSIZE) - meta.length;
-            if (padding > 0) disk.write(new byte[padding]);
+    //Writes the superblock and every record; only needed when a volume is formatted
+    private void formatMetadata() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(Superblock.SIZE);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream(Superblock.SIZE);
+        sb.write(new DataOutputStream(bout));
+        header.put(bout.toByteArray()).flip();
+        device.write(0, header);
 
+        metaLock.lock();
+        try {
+            dirtyEntries.set(0, maxFiles);
+            dirtyNodes.set(0, maxBlocks);
+            //A blank volume has nothing to protect, so the records go straight home
+            saveDirty(device::write);
+        } finally {
+            metaLock.unlock();
+        }
+        if (journal != null) journal.format();
+    }
+
+    //Persists only the entries and nodes marked dirty since the last save, the calling thread's
+    //marks included, as one journal transaction; returns once it is committed (possibly together with other
+    //threads' changes). Call it only once the operation's updates to those records are complete
+    private void saveMetadata() throws IOException {
+        long ticket;
+        Marks mine = marks.get();
+        metaLock.lock();
+        try {
+            dirtyEntries.or(mine.entries);
+            dirtyNodes.or(mine.nodes);
+            mine.entries.clear();
+            mine.nodes.clear();
+            if (journal == null) {
+                saveDirty(device::write);
+                return;
+            }
+            saveDirty(batch::run);
+            ticket = journal.add(batch);
+            batch.clear();
         } finally {
-            fsLock.writeLock().unlock();
+            metaLock.unlock();
         }
+        journal.commit(ticket);
+    }
+
+    //Caller holds metaLock
+    private void saveDirty(RunSink sink) throws IOException {
+        saveDirty(dirtyEntries, sb.entryOffset(0), Superblock.ENTRY_SIZE, (buf, i) -> putFEntry(buf, fentries[i]), sink);
+        saveDirty(dirtyNodes, sb.nodeOffset(0), Superblock.NODE_SIZE, (buf, i) -> putFNode(buf, fnodes[i]), sink);
+    }
+
+    //Coalesces consecutive dirty records so each run is a single write
+    private void saveDirty(BitSet dirty, long base, int recSize, RecordWriter writer, RunSink sink) throws IOException {
+        int perWrite = metaBuf.capacity() / recSize;
+        int i = dirty.nextSetBit(0);
+        while (i >= 0) {
+            int end = Math.min(dirty.nextClearBit(i), i + perWrite);
+            metaBuf.clear();
+            for (int r = i; r < end; r++) writer.put(metaBuf, r);
+            dirty.clear(i, end);
+            metaBuf.flip();
+            sink.write(base + (long) i * recSize, metaBuf);
+            i = dirty.nextSetBit(end);
+        }
+    }
+
+    private interface RecordWriter {
+        void put(ByteBuffer buf, int index);
+    }
+
+    private interface RunSink {
+        void write(long pos, ByteBuffer src) throws IOException;
+    }
+
+    //The mark* methods record what the current operation changed; its next saveMetadata() persists them
+    private void markEntry(int slot) {
+        marks.get().entries.set(slot);
+    }
+
+    private void markNode(int node) {
+        marks.get().nodes.set(node);
     }
 
     private void loadMetadata() throws IOException {
-        fsLock.writeLock().lock();
+        metaLock.lock();
         try {
-            disk.seek(0);
-            byte[] meta = new byte[metadataBlocks * BLOCKSIZE];
-            disk.readFully(meta);
+            ByteBuffer meta = ByteBuffer.allocate((int) (sb.metadataBytes() - Superblock.SIZE));
+            device.read(Superblock.SIZE, meta);
+            meta.flip();
+
+            for (int i = 0; i < maxFiles; i++) fentries[i] = getFEntry(meta);
+            for (int i = 0; i < maxBlocks; i++) fnodes[i] = getFNode(meta);
+
+            //The directory index is not persisted, it is rebuilt from the file table
+            directory.clear();
+            entryMap.clear();
+            for (int i = 0; i < maxFiles; i++) {
+                if (!fentries[i].isUsed()) continue;
+                directory.put(fentries[i].getFilename(), i);
+                entryMap.markUsed(i);
+            }
 
-            ByteArrayInputStream bin = new ByteArrayInputStream(meta);
+            //fnodes reachable from a file are authoritative: the bitmaps are not persisted, they are rebuilt from them
+            blocks.clear();
+            nodeMap.clear();
+            for (FEntry fe : fentries) {
+                if (!fe.isUsed()) continue;
+                for (int node = fe.getFirstBlock(); node != -1 && !nodeMap.isUsed(node); node = fnodes[node].getNext()) {
+                    nodeMap.markUsed(node);
+                    blocks.markUsed(fnodes[node].getBlockIndex(), fnodes[node].getLength());
+                }
+            }
 
-            for (int i = 0; i < MAXFILES; i++) fentries[i] = readFEntry(bin);
-            for (int i = 0; i < MAXBLOCKS; i++) fnodes[i] = readFNode(bin);
+            //Extents no file points to (e.g. a release deferred by a reader when the server stopped) are reclaimed
+            for (int i = 0; i < maxBlocks; i++) {
+                if (!fnodes[i].isUsed() || nodeMap.isUsed(i)) continue;
+                scrubber.add(fnodes[i].getBlockIndex(), fnodes[i].getLength());
+                fnodes[i].clear();
+                dirtyNodes.set(i);
+            }
+            blocks.rebuildIndex();
 
         } finally {
-            fsLock.writeLock().unlock();
+            metaLock.unlock();
         }
     }
 
-    // Metadata Serialization Helpers 
+    // Metadata Serialization Helpers
 
-    private void writeFEntry(OutputStream out, FEntry e) throws IOException {
+    private void putFEntry(ByteBuffer buf, FEntry e) {
         byte[] name = new byte[11];
         if (e.getFilename() != null)
             System.arraycopy(e.getFilename().getBytes(), 0, name, 0, e.getFilename().length());
 
-        out.write(name);
-        writeShort(out, e.getFilesize());
-        writeShort(out, e.getFirstBlock());
+        buf.put(name);
+        buf.putInt(e.getFilesize());
+        buf.putInt(e.getFirstBlock());
     }
 
-    private FEntry readFEntry(InputStream in) throws IOException {
-        byte[] name = in.readNBytes(11);
-        short size = readShort(in);
-        short first = readShort(in);
+    private FEntry getFEntry(ByteBuffer buf) {
+        byte[] name = new byte[11];
+        buf.get(name);
+        int size = buf.getInt();
+        int first = buf.getInt();
 
         FEntry e = new FEntry();
         String n = new String(name).trim();
@@ -109,197 +372,776 @@ public class FileSystemManager {
         return e;
     }
 
-    private void writeFNode(OutputStream out, FNode n) throws IOException {
-        writeShort(out, n.getBlockIndex());
-        writeShort(out, n.getNext());
+    private void putFNode(ByteBuffer buf, FNode n) {
+        buf.putInt(n.getBlockIndex());
+        buf.putInt(n.getLength());
+        buf.putInt(n.getNext());
     }
 
-    private FNode readFNode(InputStream in) throws IOException {
-        short blk = readShort(in);
-        short nxt = readShort(in);
+    private FNode getFNode(ByteBuffer buf) {
         FNode n = new FNode();
-        n.setBlockIndex(blk);
-        n.setNext(nxt);
+        n.setBlockIndex(buf.getInt());
+        n.setLength(buf.getInt());
+        n.setNext(buf.getInt());
         return n;
     }
 
-    private void writeShort(OutputStream out, short v) throws IOException {
-        out.write((v >> 8) & 0xFF);
-        out.write(v & 0xFF);
-    }
-
-    private short readShort(InputStream in) throws IOException {
-        int hi = in.read();
-        int lo = in.read();
-        return (short) ((hi << 8) | lo);
-    }
-
     //  File Operations
 
     public void createFile(String name) throws Exception {
-        fsLock.writeLock().lock();
-        try {
-            if (name == null || name.length() > 11)
-                throw new Exception("ERROR: filename too large");
+        if (name == null || name.length() > 11)
+            throw new Exception("ERROR: filename too large");
 
-            for (FEntry e : fentries)
-                if (e.isUsed() && name.equals(e.getFilename()))
-                    throw new Exception("ERROR: file already exists");
-
-            int free = -1;
-            for (int i = 0; i < MAXFILES; i++)
-                if (!fentries[i].isUsed()) { free = i; break; }
+        int free = -1;
+        dirLock.writeLock().lock();
+        try {
+            if (directory.get(name) != -1)
+                throw new Exception("ERROR: file already exists");
 
+            free = entryMap.allocate();
             if (free == -1)
                 throw new Exception("ERROR: maximum file limit reached");
 
             fentries[free] = new FEntry(name);
-            saveMetadata();
-
+            directory.put(name, free);
         } finally {
-            fsLock.writeLock().unlock();
+            dirLock.writeLock().unlock();
         }
+        markEntry(free);
+        saveMetadata();
+        flusher.await();
     }
 
+    //A private copy of the file; only content shared with the cache is copied, an uncacheable file is read
+    //straight into the returned array
     public byte[] readFile(String name) throws Exception {
-        fsLock.readLock().lock();
-        try {
-            FEntry fe = findEntry(name);
-            if (fe == null)
-                throw new Exception("ERROR: file " + name + " does not exist");
+        CachedFile file = readCached(name);
+        return contentCache.accepts(file.size()) ? file.getData().clone() : file.getData();
+    }
 
-            byte[] data = new byte[fe.getFilesize()];
-            int offset = 0;
-            short node = fe.getFirstBlock();
+    //Whole file as an immutable snapshot; small files are served from the content cache when
+    //their version still matches, without taking the file lock or reading the device
+    public CachedFile readCached(String name) throws Exception {
+        int found = findSlot(name);
+        if (found != -1) {
+            CachedFile hit = contentCache.get(found);
+            if (hit != null && hit.getVersion() == versions.get(found) && hit.getName().equals(name))
+                return hit;
+        }
 
-            while (node != -1) {
-                FNode fn = fnodes[node];
-                int realBlock = dataStartBlock + fn.getBlockIndex();
+        int slot = lockFile(name, false);
+        try {
+            FEntry fe = fentries[slot];
 
-                disk.seek(realBlock * BLOCKSIZE);
+            byte[] data = readRange(fe, 0, fe.getFilesize());
 
-                int toread = Math.min(BLOCKSIZE, data.length - offset);
-                disk.readFully(data, offset, toread);
+            //Still under the read lock, so no writer can invalidate between the read and the put
+            CachedFile file = new CachedFile(name, versions.get(slot), data);
+            contentCache.put(slot, file);
+            return file;
+        } finally {
+            unlockFile(slot, false);
+        }
+    }
 
-                offset += toread;
-                node = fn.getNext();
+    //Opens a file for streaming. The handle pins the file's current extents rather than holding the file
+    //lock, so writers are not blocked by a slow reader; an overwrite or delete frees the old extents only
+    //once every handle on them is closed
+    public FileReadHandle openRead(String name) throws Exception {
+        int slot = lockFile(name, false);
+        try {
+            FEntry fe = fentries[slot];
+            int size = fe.getFilesize();
+
+            List<long[]> runs = new ArrayList<>();
+            long left = size;
+            for (int node = fe.getFirstBlock(); node != -1 && left > 0; node = fnodes[node].getNext()) {
+                FNode ext = fnodes[node];
+                long len = Math.min((long) ext.getLength() * blockSize, left);
+                runs.add(new long[]{sb.blockOffset(ext.getBlockIndex()), len});
+                left -= len;
             }
 
-            return data;
+            int chain = fe.getFirstBlock();
+            if (chain != -1) {
+                synchronized (pins) {
+                    pins.merge(chain, 1, Integer::sum);
+                }
+            }
+            return new FileReadHandle(this, device, chain, size, runs.toArray(new long[0][]));
         } finally {
-            fsLock.readLock().unlock();
+            unlockFile(slot, false);
         }
     }
 
-    public void deleteFile(String name) throws Exception {
-        fsLock.writeLock().lock();
-        try {
-            FEntry fe = findEntry(name);
-            if (fe == null)
-                throw new Exception("ERROR: file " + name + " does not exist");
-
-            short node = fe.getFirstBlock();
-            byte[] zeros = new byte[BLOCKSIZE];
+    //Last handle on a chain that was overwritten or deleted meanwhile: free it now
+    void unpin(int chain) throws IOException {
+        if (chain == -1) return;
+        boolean release;
+        synchronized (pins) {
+            if (pins.merge(chain, -1, Integer::sum) == 0) pins.remove(chain);
+            release = !pins.containsKey(chain) && deferredReleases.remove(chain);
+        }
+        if (release) {
+            releaseChain(chain);
+            saveMetadata();
+        }
+    }
 
-            while (node != -1) {
-                FNode fn = fnodes[node];
+    //Hint only: size of the file when it was last looked at, -1 if it does not exist
+    public int fileSize(String name) {
+        int slot = findSlot(name);
+        return slot == -1 ? -1 : fentries[slot].getFilesize();
+    }
 
-                int realBlock = dataStartBlock + fn.getBlockIndex();
-                disk.seek(realBlock * BLOCKSIZE);
-                disk.write(zeros);
+    public FileContentCache getContentCache() {
+        return contentCache;
+    }
 
-                short next = fn.getNext();
-                fn.clear();
-                node = next;
+    public void deleteFile(String name) throws Exception {
+        int slot = lockFile(name, true);
+        try {
+            FEntry fe = fentries[slot];
+            int chain = fe.getFirstBlock();
+
+            changed(slot);
+            dirLock.writeLock().lock();
+            try {
+                directory.remove(fe.getFilename());
+                entryMap.markFree(slot);
+                fe.clear();
+            } finally {
+                dirLock.writeLock().unlock();
             }
+            markEntry(slot);
+            saveMetadata();
 
-            fe.clear();
+            //The extents stay allocated until this commit is durable: a crash before then finds the file
+            //again, and its content must still be there
+            releaseChain(chain);
             saveMetadata();
 
         } finally {
-            fsLock.writeLock().unlock();
+            unlockFile(slot, true);
         }
+        flusher.await();
     }
 
     public void writeFile(String name, byte[] data) throws Exception {
-        fsLock.writeLock().lock();
+        int slot = lockFile(name, true);
         try {
-            FEntry fe = findEntry(name);
-            if (fe == null)
-                throw new Exception("ERROR: file " + name + " does not exist");
-
-            int needed = (int) Math.ceil(data.length / (double) BLOCKSIZE);
-            if (needed == 0) needed = 1;
+            replaceContent(slot, data);
+        } finally {
+            unlockFile(slot, true);
+        }
+        flusher.await();
+    }
 
-            List<Integer> freeNodes = new ArrayList<>();
-            for (int i = 0; i < MAXBLOCKS; i++)
-                if (!fnodes[i].isUsed()) freeNodes.add(i);
+    //Copy-on-write: data goes to newly allocated extents, then the old chain is released; caller holds the write lock
+    private void replaceContent(int slot, byte[] data) throws Exception {
+        int[][] alloc = allocateContentOrReclaim(data.length);
+        if (alloc == null)
+            throw new Exception("ERROR: file too large");
 
-            if (freeNodes.size() < needed)
-                throw new Exception("ERROR: file too large");
+        fillContent(alloc, data);
+        int old = switchContent(slot, alloc, data.length);
+        saveMetadata();
 
-            int[] allocated = new int[needed];
-            for (int i = 0; i < needed; i++) allocated[i] = freeNodes.get(i);
+        //The old extents are released only after the switch is committed, and reused only once it is durable
+        releaseChain(old);
+        saveMetadata();
+    }
 
-            for (int i = 0; i < needed; i++) {
-                int idx = allocated[i];
-                fnodes[idx].setBlockIndex((short) idx);
-                fnodes[idx].setNext(i == needed - 1 ? (short)-1 : (short) allocated[i + 1]);
+    //allocateContent, retried while the scrubber still holds released extents waiting on a flush
+    private int[][] allocateContentOrReclaim(int length) throws IOException {
+        long seen;
+        do {
+            seen = scrubber.reclaimed();
+            allocLock.lock();
+            try {
+                int[][] alloc = allocateContent(length);
+                if (alloc != null) return alloc;
+            } finally {
+                allocLock.unlock();
             }
+        } while (scrubber.reclaim(seen));
+        return null;
+    }
 
-            int offset = 0;
-            for (int i = 0; i < needed; i++) {
-                int blk = dataStartBlock + allocated[i];
-                disk.seek(blk * BLOCKSIZE);
+    //Extents for length bytes and one FNode per extent, as {nodes, extent...}; null when either runs out,
+    //with nothing taken. Caller holds allocLock
+    private int[][] allocateContent(int length) {
+        int needed = (int) Math.ceil(length / (double) blockSize);
+        if (needed == 0) needed = 1;
+
+        int[][] extents = blocks.allocate(needed);
+        if (extents == null) return null;
+        int[] nodes = nodeMap.allocate(extents.length);
+        if (nodes == null) {
+            for (int[] ext : extents) blocks.free(ext[0], ext[1]);
+            return null;
+        }
+        int[][] alloc = new int[extents.length + 1][];
+        alloc[0] = nodes;
+        System.arraycopy(extents, 0, alloc, 1, extents.length);
+        return alloc;
+    }
+
+    //Chains freshly allocated extents together and writes data into them
+    private void fillContent(int[][] alloc, byte[] data) throws IOException {
+        int[] nodes = alloc[0];
+        int[][] extents = Arrays.copyOfRange(alloc, 1, alloc.length);
+
+        //The new extents belong to this file alone now, so they are filled without the allocator lock
+        for (int i = 0; i < extents.length; i++) {
+            FNode ext = fnodes[nodes[i]];
+            ext.setBlockIndex(extents[i][0]);
+            ext.setLength(extents[i][1]);
+            ext.setNext(i == extents.length - 1 ? -1 : nodes[i + 1]);
+            markNode(nodes[i]);
+        }
+
+        //One write per extent; the last one gathers the data with the zero padding of its final block
+        int offset = 0;
+        for (int[] ext : extents) {
+            int towrite = (int) Math.min((long) ext[1] * blockSize, data.length - offset);
+            int padding = ext[1] * blockSize - towrite;
+
+            ByteBuffer chunk = ByteBuffer.wrap(data, offset, towrite);
+            if (padding == 0)
+                device.write(sb.blockOffset(ext[0]), chunk);
+            else
+                device.writeBlocks(sb.deviceBlock(ext[0]), new ByteBuffer[]{chunk, ByteBuffer.allocate(padding)});
+
+            offset += towrite;
+        }
+    }
 
-                int towrite = Math.min(BLOCKSIZE, data.length - offset);
-                disk.write(data, offset, towrite);
+    //Points the file at its new chain; returns the old one, to be released once this is committed
+    private int switchContent(int slot, int[][] alloc, int length) {
+        FEntry fe = fentries[slot];
+        int old = fe.getFirstBlock();
+        fe.setFilesize(length);
+        fe.setFirstBlock(alloc[0][0]);
+        changed(slot);
+        markEntry(slot);
+        return old;
+    }
 
-                if (towrite < BLOCKSIZE)
-                    disk.write(new byte[BLOCKSIZE - towrite]);
+    // Batch operations: many files under one lock acquisition, one allocator pass and one metadata commit
 
-                offset += towrite;
+    //Per-item results, in the order of names
+    public BatchResult[] createFiles(String[] names) throws Exception {
+        BatchResult[] results = new BatchResult[names.length];
+        List<Integer> created = new ArrayList<>();
+        dirLock.writeLock().lock();
+        try {
+            for (int i = 0; i < names.length; i++) {
+                String name = names[i];
+                int free;
+                if (name == null || name.length() > 11)
+                    results[i] = BatchResult.failed("ERROR: filename too large");
+                else if (directory.get(name) != -1)
+                    results[i] = BatchResult.failed("ERROR: file already exists");
+                else if ((free = entryMap.allocate()) == -1)
+                    results[i] = BatchResult.failed("ERROR: maximum file limit reached");
+                else {
+                    fentries[free] = new FEntry(name);
+                    directory.put(name, free);
+                    created.add(free);
+                    results[i] = BatchResult.OK;
+                }
             }
+        } finally {
+            dirLock.writeLock().unlock();
+        }
+        if (created.isEmpty()) return results;
 
-            short old = fe.getFirstBlock();
-            byte[] zeros = new byte[BLOCKSIZE];
-            while (old != -1) {
-                FNode fn = fnodes[old];
-                int blk = dataStartBlock + fn.getBlockIndex();
-                disk.seek(blk * BLOCKSIZE);
-                disk.write(zeros);
-
-                short next = fn.getNext();
-                fn.clear();
-                old = next;
+        metaLock.lock();
+        try {
+            for (int slot : created) dirtyEntries.set(slot);
+        } finally {
+            metaLock.unlock();
+        }
+        saveMetadata();
+        flusher.await();
+        return results;
+    }
+
+    public BatchResult[] readFiles(String[] names) throws Exception {
+        BatchResult[] results = new BatchResult[names.length];
+        int[] slots = lockFiles(names, false);
+        try {
+            for (int i = 0; i < names.length; i++) {
+                int slot = slots[i];
+                if (slot == -1) {
+                    results[i] = BatchResult.failed("ERROR: file " + names[i] + " does not exist");
+                    continue;
+                }
+                CachedFile file = contentCache.get(slot);
+                if (file == null || file.getVersion() != versions.get(slot) || !file.getName().equals(names[i])) {
+                    FEntry fe = fentries[slot];
+                    file = new CachedFile(names[i], versions.get(slot), readRange(fe, 0, fe.getFilesize()));
+                    contentCache.put(slot, file);
+                }
+                results[i] = BatchResult.of(file.getData().clone());
             }
+        } finally {
+            unlockFiles(slots, false);
+        }
+        return results;
+    }
 
-            fe.setFilesize((short) data.length);
-            fe.setFirstBlock((short) allocated[0]);
+    //Replaces the content of existing files; an item that does not fit fails alone
+    public BatchResult[] writeFiles(String[] names, byte[][] data) throws Exception {
+        if (names.length != data.length)
+            throw new Exception("ERROR: malformed batch");
+        BatchResult[] results = new BatchResult[names.length];
+        int[][][] allocs = new int[names.length][][];
+        int[] slots = lockFiles(names, true);
+        try {
+            allocLock.lock();
+            try {
+                for (int i = 0; i < names.length; i++) {
+                    if (slots[i] == -1)
+                        results[i] = BatchResult.failed("ERROR: file " + names[i] + " does not exist");
+                    else
+                        allocs[i] = allocateContent(data[i].length);
+                }
+            } finally {
+                allocLock.unlock();
+            }
+            for (int i = 0; i < names.length; i++) {
+                if (slots[i] != -1 && allocs[i] == null && (allocs[i] = allocateContentOrReclaim(data[i].length)) == null)
+                    results[i] = BatchResult.failed("ERROR: file too large");
+            }
 
-            saveMetadata();
+            List<Integer> old = new ArrayList<>();
+            for (int i = 0; i < names.length; i++) {
+                if (allocs[i] == null) continue;
+                fillContent(allocs[i], data[i]);
+                old.add(switchContent(slots[i], allocs[i], data[i].length));
+                results[i] = BatchResult.OK;
+            }
+            if (!old.isEmpty()) {
+                saveMetadata();
+                for (int chain : old) releaseChain(chain);
+                saveMetadata();
+            }
+        } finally {
+            unlockFiles(slots, true);
+        }
+        flusher.await();
+        return results;
+    }
+
+    // Partial I/O: only the blocks a request touches are read or written
+
+    //Up to length bytes starting at offset; shorter (possibly empty) past the end of the file
+    public byte[] read(String name, long offset, int length) throws Exception {
+        if (offset < 0 || length < 0)
+            throw new Exception("ERROR: invalid range");
+        int slot = lockFile(name, false);
+        try {
+            FEntry fe = fentries[slot];
+            return readRange(fe, offset, (int) Math.max(0, Math.min(length, fe.getFilesize() - offset)));
+        } finally {
+            unlockFile(slot, false);
+        }
+    }
+
+    //Overwrites the bytes at offset, growing the file if needed; a gap past the old end reads back as zeros
+    public void write(String name, long offset, byte[] data) throws Exception {
+        int slot = lockFile(name, true);
+        try {
+            writeAt(slot, offset, data);
+        } finally {
+            unlockFile(slot, true);
+        }
+        flusher.await();
+    }
+
+    //Adds data at the end of the file and returns the offset it was written at
+    public long append(String name, byte[] data) throws Exception {
+        long offset;
+        int slot = lockFile(name, true);
+        try {
+            offset = fentries[slot].getFilesize();
+            writeAt(slot, offset, data);
+        } finally {
+            unlockFile(slot, true);
+        }
+        flusher.await();
+        return offset;
+    }
 
+    //Cuts the file to size bytes or extends it with zeros
+    public void truncate(String name, long size) throws Exception {
+        if (size < 0)
+            throw new Exception("ERROR: invalid size");
+        if (size > Integer.MAX_VALUE)
+            throw new Exception("ERROR: file too large");
+        int slot = lockFile(name, true);
+        try {
+            resize(slot, size);
         } finally {
-            fsLock.writeLock().unlock();
+            unlockFile(slot, true);
+        }
+        flusher.await();
+    }
+
+    //Caller holds the write lock
+    private void resize(int slot, long size) throws Exception {
+        FEntry fe = fentries[slot];
+        int old = fe.getFilesize();
+        if (size == old) return;
+
+        //Streaming readers must keep seeing the old content, so a pinned file gets a new copy
+        if (isPinned(fe.getFirstBlock())) {
+            replaceContent(slot, Arrays.copyOf(readRange(fe, 0, old), (int) size));
+            return;
+        }
+
+        if (size > old) {
+            ensureCapacity(fe, size);
+            zeroRange(fe, old, size);
+            fe.setFilesize((int) size);
+            changed(slot);
+            markEntry(slot);
+            saveMetadata();
+            return;
+        }
+
+        int[] cut = detachTail(fe, (int) size);
+        fe.setFilesize((int) size);
+        changed(slot);
+        markEntry(slot);
+        saveMetadata();
+
+        scrubber.release(cut[0], cut[1]);
+        releaseChain(cut[2]);
+        saveMetadata();
+    }
+
+    //Caller holds the write lock
+    private void writeAt(int slot, long offset, byte[] data) throws Exception {
+        if (offset < 0)
+            throw new Exception("ERROR: invalid offset");
+        long end = offset + data.length;
+        if (end > Integer.MAX_VALUE)
+            throw new Exception("ERROR: file too large");
+        if (data.length == 0) return;
+
+        FEntry fe = fentries[slot];
+        int old = fe.getFilesize();
+        if (isPinned(fe.getFirstBlock())) {
+            byte[] copy = Arrays.copyOf(readRange(fe, 0, old), (int) Math.max(old, end));
+            System.arraycopy(data, 0, copy, (int) offset, data.length);
+            replaceContent(slot, copy);
+            return;
+        }
+
+        ensureCapacity(fe, end);
+        if (offset > old) zeroRange(fe, old, offset);
+        forEachRange(fe.getFirstBlock(), offset, data.length,
+                (pos, off, len) -> device.write(pos, ByteBuffer.wrap(data, off, len)));
+
+        if (end > old) fe.setFilesize((int) end);
+        changed(slot);
+        markEntry(slot);
+        saveMetadata();
+    }
+
+    //One device read per extent the range touches
+    private byte[] readRange(FEntry fe, long offset, int length) throws IOException {
+        byte[] data = new byte[length];
+        forEachRange(fe.getFirstBlock(), offset, length,
+                (pos, off, len) -> device.read(pos, ByteBuffer.wrap(data, off, len)));
+        return data;
+    }
+
+    private interface RangeOp {
+        void apply(long devicePos, int bufferOffset, int length) throws IOException;
+    }
+
+    //Maps file bytes [offset, offset + length) of a chain onto device ranges, one per extent touched
+    private void forEachRange(int node, long offset, int length, RangeOp op) throws IOException {
+        long extStart = 0;
+        int done = 0;
+        for (; node != -1 && done < length; node = fnodes[node].getNext()) {
+            FNode ext = fnodes[node];
+            long extEnd = extStart + (long) ext.getLength() * blockSize;
+            long pos = offset + done;
+            if (pos < extEnd) {
+                int n = (int) Math.min(extEnd - pos, length - done);
+                op.apply(sb.blockOffset(ext.getBlockIndex()) + (pos - extStart), done, n);
+                done += n;
+            }
+            extStart = extEnd;
+        }
+    }
+
+    //Grows the chain to hold bytes; the last extent is extended in place when the blocks after it are
+    //free, otherwise new extents are linked on. New blocks may hold old data; callers zero what they expose
+    private void ensureCapacity(FEntry fe, long bytes) throws Exception {
+        int have = 0, last = -1;
+        for (int node = fe.getFirstBlock(); node != -1; node = fnodes[node].getNext()) {
+            have += fnodes[node].getLength();
+            last = node;
+        }
+        int missing = (int) ((bytes + blockSize - 1) / blockSize) - have;
+        if (missing <= 0) return;
+
+        int grown;
+        int[][] extents;
+        int[] nodes;
+        boolean full;
+        long seen;
+        do {
+            seen = scrubber.reclaimed();
+            grown = 0;
+            extents = null;
+            nodes = null;
+            allocLock.lock();
+            try {
+                if (last != -1) {
+                    FNode ext = fnodes[last];
+                    grown = blocks.extend(ext.getBlockIndex() + ext.getLength(), missing);
+                }
+                full = false;
+                if (grown < missing) {
+                    extents = blocks.allocate(missing - grown);
+                    nodes = extents == null ? null : nodeMap.allocate(extents.length);
+                    if (nodes == null) {
+                        if (extents != null)
+                            for (int[] e : extents) blocks.free(e[0], e[1]);
+                        if (grown > 0)
+                            blocks.free(fnodes[last].getBlockIndex() + fnodes[last].getLength(), grown);
+                        full = true;
+                    }
+                }
+            } finally {
+                allocLock.unlock();
+            }
+        } while (full && scrubber.reclaim(seen));
+        if (full)
+            throw new Exception("ERROR: file too large");
+
+        if (grown > 0) {
+            FNode ext = fnodes[last];
+            ext.setLength(ext.getLength() + grown);
+            markNode(last);
+        }
+        if (nodes == null) return;
+        for (int i = 0; i < extents.length; i++) {
+            FNode ext = fnodes[nodes[i]];
+            ext.setBlockIndex(extents[i][0]);
+            ext.setLength(extents[i][1]);
+            ext.setNext(i == extents.length - 1 ? -1 : nodes[i + 1]);
+            markNode(nodes[i]);
+        }
+        if (last == -1) {
+            fe.setFirstBlock(nodes[0]);
+        } else {
+            fnodes[last].setNext(nodes[0]);
+            markNode(last);
+        }
+    }
+
+    //Unlinks everything past the blocks holding the first size bytes and returns {start, length} of the
+    //blocks split off the last kept extent plus the detached chain; the caller frees them after committing
+    private int[] detachTail(FEntry fe, int size) {
+        int[] cut = {0, 0, -1};
+        int keep = (size + blockSize - 1) / blockSize;
+        int prev = -1, node = fe.getFirstBlock();
+        while (node != -1 && keep >= fnodes[node].getLength()) {
+            keep -= fnodes[node].getLength();
+            prev = node;
+            node = fnodes[node].getNext();
+        }
+        //Split the extent the new end falls in
+        if (node != -1 && keep > 0) {
+            FNode ext = fnodes[node];
+            cut[0] = ext.getBlockIndex() + keep;
+            cut[1] = ext.getLength() - keep;
+            ext.setLength(keep);
+            markNode(node);
+            prev = node;
+            node = ext.getNext();
+        }
+        if (prev == -1) {
+            fe.setFirstBlock(-1);
+        } else {
+            fnodes[prev].setNext(-1);
+            markNode(prev);
+        }
+        cut[2] = node;
+        return cut;
+    }
+
+    private boolean isPinned(int chain) {
+        if (chain == -1) return false;
+        synchronized (pins) {
+            return pins.containsKey(chain);
         }
     }
 
     public String[] listFiles() {
-        fsLock.readLock().lock();
+        dirLock.readLock().lock();
         try {
             List<String> names = new ArrayList<>();
             for (FEntry e : fentries)
                 if (e.isUsed()) names.add(e.getFilename());
             return names.toArray(new String[0]);
         } finally {
-            fsLock.readLock().unlock();
+            dirLock.readLock().unlock();
         }
     }
 
-    private FEntry findEntry(String name) {
-        for (FEntry e : fentries)
-            if (e.isUsed() && name.equals(e.getFilename()))
-                return e;
-        return null;
+    //Frees a chain's FNodes and hands its extents to the scrubber, which returns them to the allocator once the
+    //commit that detached them is durable and then scrubs them; caller holds the file's write lock,
+    //or is the last reader of a chain no file points to any more
+    private void releaseChain(int node) throws IOException {
+        if (node != -1) {
+            synchronized (pins) {
+                if (pins.containsKey(node)) {
+                    deferredReleases.add(node);
+                    return;
+                }
+            }
+        }
+        while (node != -1) {
+            FNode ext = fnodes[node];
+            int start = ext.getBlockIndex(), length = ext.getLength();
+
+            int next = ext.getNext();
+            allocLock.lock();
+            try {
+                nodeMap.markFree(node);
+                ext.clear();
+            } finally {
+                allocLock.unlock();
+            }
+            markNode(node);
+            //The blocks get rewritten in place once reused, unlike the journalled metadata, so the scrubber
+            //keeps them allocated until a flush covers the commit that detached them
+            scrubber.release(start, length);
+            node = next;
+        }
+    }
+
+    //Freed blocks are not zeroed when released, and bytes past the end of a file are whatever was there,
+    //so a file that grows gets its new range [from, to) written with zeros
+    private void zeroRange(FEntry fe, long from, long to) throws IOException {
+        ByteBuffer zeros = ByteBuffer.allocate((int) Math.min(to - from, 64 * 1024));
+        forEachRange(fe.getFirstBlock(), from, (int) (to - from), (pos, off, len) -> {
+            for (int done = 0; done < len; ) {
+                int n = Math.min(len - done, zeros.capacity());
+                device.write(pos + done, zeros.clear().limit(n));
+                done += n;
+            }
+        });
+    }
+
+    //New version for the slot, dropping its cached content; caller holds the file's write lock
+    private void changed(int slot) {
+        versions.incrementAndGet(slot);
+        contentCache.invalidate(slot);
+    }
+
+    // Directory lookup and per-file locking
+
+    private ReadWriteLock stripe(int slot) {
+        return fileLocks[slot % fileLocks.length];
+    }
+
+    //Finds the file's slot and locks it; retries if the file was deleted or moved while we waited
+    private int lockFile(String name, boolean write) throws Exception {
+        long waitingSince = System.nanoTime();
+        while (true) {
+            int slot = findSlot(name);
+            if (slot == -1)
+                throw new Exception("ERROR: file " + name + " does not exist");
+
+            Lock l = write ? stripe(slot).writeLock() : stripe(slot).readLock();
+            l.lock();
+            if (name.equals(fentries[slot].getFilename())) {
+                lockGranted(waitingSince);
+                return slot;
+            }
+            l.unlock();
+        }
+    }
+
+    private void unlockFile(int slot, boolean write) {
+        lockReleased();
+        if (write) stripe(slot).writeLock().unlock();
+        else stripe(slot).readLock().unlock();
+    }
+
+    //Locks the stripes of all the named files, each once and in ascending order, so batches cannot deadlock
+    //with each other or with single-file calls (which hold one stripe at a time). Returns each name's slot,
+    //-1 for names that do not exist; retries if a file moved while we waited
+    private int[] lockFiles(String[] names, boolean write) {
+        long waitingSince = System.nanoTime();
+        while (true) {
+            int[] slots = new int[names.length];
+            dirLock.readLock().lock();
+            try {
+                for (int i = 0; i < names.length; i++)
+                    slots[i] = names[i] == null ? -1 : directory.get(names[i]);
+            } finally {
+                dirLock.readLock().unlock();
+            }
+
+            int[] stripes = stripesOf(slots);
+            for (int s : stripes) (write ? fileLocks[s].writeLock() : fileLocks[s].readLock()).lock();
+            boolean moved = false;
+            for (int i = 0; i < names.length; i++)
+                if (slots[i] != -1 && !names[i].equals(fentries[slots[i]].getFilename())) moved = true;
+            if (!moved) {
+                lockGranted(waitingSince);
+                return slots;
+            }
+            unlockStripes(stripes, write);
+        }
+    }
+
+    private void unlockFiles(int[] slots, boolean write) {
+        lockReleased();
+        unlockStripes(stripesOf(slots), write);
+    }
+
+    private int[] stripesOf(int[] slots) {
+        return Arrays.stream(slots).filter(s -> s != -1).map(s -> s % fileLocks.length).distinct().sorted().toArray();
+    }
+
+    private void unlockStripes(int[] stripes, boolean write) {
+        for (int s : stripes) (write ? fileLocks[s].writeLock() : fileLocks[s].readLock()).unlock();
+    }
+
+    private void lockGranted(long waitingSince) {
+        OpCost cost = OpCost.current();
+        cost.lockedAt = System.nanoTime();
+        cost.lockWaitNanos += cost.lockedAt - waitingSince;
+        lockAcquisitions.increment();
+        lockWaitNanos.add(cost.lockedAt - waitingSince);
+    }
+
+    private void lockReleased() {
+        OpCost cost = OpCost.current();
+        long held = System.nanoTime() - cost.lockedAt;
+        cost.lockHoldNanos += held;
+        lockHoldNanos.add(held);
+    }
+
+    private int findSlot(String name) {
+        if (name == null) return -1;
+        dirLock.readLock().lock();
+        try {
+            return directory.get(name);
+        } finally {
+            dirLock.readLock().unlock();
+        }
     }
 }
@@ -0,0 +1,385 @@
+package ca.concordia.filesystem;
+
+//Redo log for metadata, kept in its own region of the volume
+//Metadata changes are appended to the log as transactions and only reach their home locations when a
+//background checkpoint applies them, so a commit is one sequential write instead of several random ones.
+//A crash can lose an operation that was not committed yet but never leaves half of one on the volume:
+//on startup recover() re-applies every complete transaction and ignores a torn one.
+//Data blocks are not logged; they are written before the metadata that points to them is committed, and a
+//checkpoint flushes the log (and with it those data writes) before it touches any home location
+//
+//Region layout: one header block {magic, head position, head sequence, crc}, then a circular log of
+//transactions {magic, sequence, body length, crc, body}. A body is a list of runs {home position, length, bytes}.
+//Concurrent commits are grouped: runs added while one transaction is being written all go into the next one
+
+import ca.concordia.filesystem.device.BlockDevice;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.zip.CRC32;
+
+public class Journal {
+
+    private static final int HEADER_MAGIC = 0x4A524E4C;     //"JRNL"
+    private static final int TXN_MAGIC = 0x54584E31;        //"TXN1"
+    private static final int HEADER_SIZE = 24;
+    private static final int TXN_HEADER = 20;
+    private static final int RUN_HEADER = 12;
+
+    //How often an idle checkpointer applies what has been committed (-Dfs.journal.checkpointMs, default 1000)
+    private static final long CHECKPOINT_MS = Long.getLong("fs.journal.checkpointMs", 1000);
+
+    private final BlockDevice device;
+    private final long headerPos;
+    private final long start;               //first byte of the log area
+    private final long end;
+
+    //Group commit: runs added since the last transaction was written; guarded by this
+    private ByteBuffer pending = ByteBuffer.allocate(4096);
+    private long openBatch = 1;
+    private long committedBatch;            //guarded by writer
+    private boolean writing;
+    private final Object writer = new Object();
+
+    //Log state, guarded by this
+    private long head, headSeq;             //oldest transaction not yet checkpointed
+    private long tail, nextSeq;             //where the next transaction goes
+    private long used;                      //bytes between head and tail, including space skipped at a wrap
+    private final ArrayDeque<Txn> unapplied = new ArrayDeque<>();
+
+    private final Object checkpointLock = new Object();
+    private Thread checkpointer;
+    private boolean closed;
+    private volatile IOException failure;
+
+    private long transactions, checkpoints;
+
+    private static class Txn {
+        final ByteBuffer body;
+        final long charged;                 //log bytes it occupies, including any skipped tail
+        final long next, nextSeq;           //head once it is checkpointed
+
+        Txn(ByteBuffer body, long charged, long next, long nextSeq) {
+            this.body = body;
+            this.charged = charged;
+            this.next = next;
+            this.nextSeq = nextSeq;
+        }
+    }
+
+    //Runs making up one atomic change, built by the caller and handed over with add()
+    public static class Batch {
+        private ByteBuffer buf = ByteBuffer.allocate(4096);
+
+        public void run(long homePos, ByteBuffer bytes) {
+            int n = bytes.remaining();
+            if (buf.remaining() < RUN_HEADER + n) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(buf.capacity() * 2, buf.position() + RUN_HEADER + n));
+                buf.flip();
+                buf = bigger.put(buf);
+            }
+            buf.putLong(homePos).putInt(n).put(bytes);
+        }
+
+        public boolean isEmpty() {
+            return buf.position() == 0;
+        }
+
+        public void clear() {
+            buf.clear();
+        }
+    }
+
+    public Journal(BlockDevice device, long offset, long length, int blockSize) {
+        if (length < 2L * blockSize)
+            throw new IllegalArgumentException("Journal needs at least two blocks");
+        this.device = device;
+        this.headerPos = offset;
+        this.start = offset + blockSize;
+        this.end = offset + length;
+        head = tail = start;
+    }
+
+    //Empty log on a freshly formatted volume
+    public synchronized void format() throws IOException {
+        head = tail = start;
+        headSeq = nextSeq = 1;
+        used = 0;
+        writeHeader();
+    }
+
+    //Re-applies every complete transaction after the last checkpoint and empties the log; returns how many
+    public long recover() throws IOException {
+        synchronized (checkpointLock) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            device.read(headerPos, header);
+            header.flip();
+            int magic = header.getInt();
+            long pos = header.getLong(), seq = header.getLong();
+            if (magic != HEADER_MAGIC || header.getInt() != crc(header, 0, HEADER_SIZE - 4)
+                    || pos < start || pos >= end || seq < 1)
+                throw new IOException("ERROR: corrupt journal header");
+
+            long replayed = 0;
+            ByteBuffer body;
+            while ((body = readTxn(pos, seq)) != null || (pos != start && (body = readTxn(pos = start, seq)) != null)) {
+                apply(body);
+                pos += TXN_HEADER + body.capacity();
+                seq++;
+                replayed++;
+            }
+            device.flush();
+
+            synchronized (this) {
+                head = tail = pos == end ? start : pos;
+                headSeq = nextSeq = seq;
+                used = 0;
+                writeHeader();
+            }
+            device.flush();
+            return replayed;
+        }
+    }
+
+    //Transaction seq at pos, or null if what is there is something else, stale or torn
+    private ByteBuffer readTxn(long pos, long seq) throws IOException {
+        if (pos + TXN_HEADER > end) return null;
+        ByteBuffer header = ByteBuffer.allocate(TXN_HEADER);
+        device.read(pos, header);
+        header.flip();
+        if (header.getInt() != TXN_MAGIC || header.getLong() != seq) return null;
+        int length = header.getInt(), sum = header.getInt();
+        if (length < 0 || pos + TXN_HEADER + length > end) return null;
+
+        ByteBuffer body = ByteBuffer.allocate(length);
+        device.read(pos + TXN_HEADER, body);
+        body.flip();
+        return crc(body, 0, length) == sum ? body : null;
+    }
+
+    //Queues a batch for the next transaction and returns the ticket to commit(); an empty batch still gets
+    //a ticket covering whatever is queued, since it may hold records the caller changed
+    public synchronized long add(Batch batch) {
+        if (!batch.isEmpty()) {
+            ByteBuffer runs = batch.buf.duplicate().flip();
+            if (pending.remaining() < runs.remaining()) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + runs.remaining()));
+                pending.flip();
+                pending = bigger.put(pending);
+            }
+            pending.put(runs);
+        }
+        return pending.position() == 0 ? openBatch - 1 : openBatch;
+    }
+
+    //Returns once the batch holding ticket is in the log; whoever gets here first writes every batch
+    //waiting at that moment, so concurrent callers share one write
+    public void commit(long ticket) throws IOException {
+        if (failure != null) throw failure;
+        ByteBuffer body;
+        long batch;
+        synchronized (writer) {
+            //Followers wait for the write in progress instead of queueing behind the next one
+            while (writing && committedBatch < ticket) {
+                try {
+                    writer.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("ERROR: interrupted waiting for commit");
+                }
+            }
+            if (failure != null) throw failure;
+            if (committedBatch >= ticket) return;
+            writing = true;
+            synchronized (this) {
+                pending.flip();
+                body = ByteBuffer.allocate(pending.remaining()).put(pending).flip();
+                pending.clear();
+                batch = openBatch++;
+            }
+        }
+
+        try {
+            if (body.hasRemaining()) append(body);
+        } catch (IOException e) {
+            //The batch may hold other callers' changes too; none of them can be acknowledged any more
+            failure = e;
+            throw e;
+        } finally {
+            synchronized (writer) {
+                if (failure == null) committedBatch = batch;
+                writing = false;
+                writer.notifyAll();
+            }
+        }
+    }
+
+    private void append(ByteBuffer body) throws IOException {
+        int size = TXN_HEADER + body.remaining();
+        if (size > end - start) {
+            //Larger than the whole log: drain it, then write the runs in place (not atomic, rare bulk updates only)
+            checkpoint();
+            device.flush();                     //the data these runs point to
+            apply(body.duplicate());
+            device.flush();
+            return;
+        }
+
+        long pos, seq, charged;
+        synchronized (this) {
+            while (true) {
+                boolean wrap = tail + size > end;
+                long skip = wrap ? end - tail : 0;
+                if (used + skip + size <= end - start) {
+                    if (wrap) tail = start;
+                    pos = tail;
+                    seq = nextSeq++;
+                    tail += size;
+                    charged = skip + size;
+                    used += charged;
+                    break;
+                }
+                //Full: wait for the checkpointer to free the oldest transactions
+                startCheckpointer();
+                notifyAll();
+                try {
+                    wait(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("ERROR: interrupted waiting for journal space");
+                }
+                if (failure != null) throw failure;
+            }
+        }
+
+        ByteBuffer txn = ByteBuffer.allocate(size);
+        txn.putInt(TXN_MAGIC).putLong(seq).putInt(body.remaining()).putInt(crc(body, body.position(), body.remaining()));
+        txn.put(body.duplicate()).flip();
+        device.write(pos, txn);
+
+        //Only written transactions are visible to the checkpointer
+        synchronized (this) {
+            unapplied.add(new Txn(body, charged, pos + size == end ? start : pos + size, seq + 1));
+            transactions++;
+            if (used > (end - start) / 2) {
+                startCheckpointer();
+                notifyAll();
+            }
+        }
+    }
+
+    //Applies committed transactions to their home locations, makes them durable and frees their log space
+    public void checkpoint() throws IOException {
+        synchronized (checkpointLock) {
+            Txn[] batch;
+            synchronized (this) {
+                batch = unapplied.toArray(new Txn[0]);
+            }
+            if (batch.length == 0) return;
+
+            //Write-ahead: the records, and the data blocks written before them, are durable before any home
+            //location changes, so a crash halfway through the apply loop can always be rolled forward
+            device.flush();
+            for (Txn t : batch) apply(t.body.duplicate());
+            device.flush();
+
+            synchronized (this) {
+                long freed = 0;
+                for (int i = 0; i < batch.length; i++) freed += unapplied.poll().charged;
+                used -= freed;
+                head = batch[batch.length - 1].next;
+                headSeq = batch[batch.length - 1].nextSeq;
+                writeHeader();
+                checkpoints++;
+                notifyAll();
+            }
+        }
+    }
+
+    private void apply(ByteBuffer body) throws IOException {
+        while (body.hasRemaining()) {
+            long home = body.getLong();
+            int n = body.getInt();
+            ByteBuffer run = body.slice();
+            run.limit(n);
+            device.write(home, run);
+            body.position(body.position() + n);
+        }
+    }
+
+    //Caller holds this
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(HEADER_MAGIC).putLong(head).putLong(headSeq);
+        header.putInt(crc(header, 0, HEADER_SIZE - 4)).flip();
+        device.write(headerPos, header);
+    }
+
+    private static int crc(ByteBuffer buf, int from, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(buf.duplicate().position(from).limit(from + length));
+        return (int) crc.getValue();
+    }
+
+    //Started on first use, so volumes that are only read never get the thread; caller holds this
+    private void startCheckpointer() {
+        if (checkpointer != null || closed) return;
+        checkpointer = new Thread(this::runCheckpointer, "fs-checkpointer");
+        checkpointer.setDaemon(true);
+        checkpointer.start();
+    }
+
+    private void runCheckpointer() {
+        try {
+            while (true) {
+                synchronized (this) {
+                    if (closed) return;
+                    if (used <= (end - start) / 2) wait(CHECKPOINT_MS);
+                    if (closed) return;
+                }
+                checkpoint();
+            }
+        } catch (InterruptedException ignored) {
+        } catch (IOException e) {
+            failure = e;
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    //Applies everything still in the log and stops the checkpointer
+    public void close() throws IOException {
+        Thread t;
+        synchronized (this) {
+            closed = true;
+            t = checkpointer;
+            notifyAll();
+        }
+        if (t != null) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        checkpoint();
+    }
+
+    public synchronized long transactions() {
+        return transactions;
+    }
+
+    public synchronized long checkpoints() {
+        return checkpoints;
+    }
+
+    //Log bytes committed but not yet checkpointed
+    public synchronized long used() {
+        return used;
+    }
+
+    public long capacity() {
+        return end - start;
+    }
+}
@@ -0,0 +1,97 @@
+package ca.concordia.filesystem;
+
+//Counts device calls and bytes for the whole volume and for the calling thread's OpCost
+//FileSystemManager wraps its device in one, so the journal, scrubber and read handles are counted too
+
+import ca.concordia.filesystem.device.BlockDevice;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.LongAdder;
+
+public class MeteredBlockDevice implements BlockDevice {
+
+    private final BlockDevice backing;
+
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+
+    public MeteredBlockDevice(BlockDevice backing) {
+        this.backing = backing;
+    }
+
+    public int blockSize() { return backing.blockSize(); }
+
+    public long capacity() { return backing.capacity(); }
+
+    public long reads() { return reads.sum(); }
+    public long writes() { return writes.sum(); }
+    public long bytesRead() { return bytesRead.sum(); }
+    public long bytesWritten() { return bytesWritten.sum(); }
+    public long flushes() { return flushes.sum(); }
+
+    private void countRead(long bytes) {
+        reads.increment();
+        bytesRead.add(bytes);
+        OpCost.current().read(bytes);
+    }
+
+    private void countWrite(long bytes) {
+        writes.increment();
+        bytesWritten.add(bytes);
+        OpCost.current().write(bytes);
+    }
+
+    @Override
+    public void read(long pos, ByteBuffer dst) throws IOException {
+        countRead(dst.remaining());
+        backing.read(pos, dst);
+    }
+
+    @Override
+    public void write(long pos, ByteBuffer src) throws IOException {
+        countWrite(src.remaining());
+        backing.write(pos, src);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushes.increment();
+        backing.flush();
+    }
+
+    //The vectored and streaming calls are passed through whole so the device keeps its fast paths
+
+    @Override
+    public long transferTo(long pos, long count, WritableByteChannel target) throws IOException {
+        long sent = backing.transferTo(pos, count, target);
+        countRead(sent);
+        return sent;
+    }
+
+    @Override
+    public void readBlocks(long block, ByteBuffer[] dsts) throws IOException {
+        countRead(remaining(dsts));
+        backing.readBlocks(block, dsts);
+    }
+
+    @Override
+    public void writeBlocks(long block, ByteBuffer[] srcs) throws IOException {
+        countWrite(remaining(srcs));
+        backing.writeBlocks(block, srcs);
+    }
+
+    private static long remaining(ByteBuffer[] bufs) {
+        long n = 0;
+        for (ByteBuffer b : bufs) n += b.remaining();
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        backing.close();
+    }
+}
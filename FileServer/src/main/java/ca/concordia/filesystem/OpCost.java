@@ -0,0 +1,45 @@
+package ca.concordia.filesystem;
+
+//What the calling thread's file system calls cost since its last reset(): device I/O and time spent waiting
+//for and holding file locks. Each thread has its own, so no synchronization; the server resets it before a
+//command and reads it afterwards to charge the cost to that command. Work done by background threads
+//(checkpoints, scrubbing, group flushes) shows up only in the volume-wide totals
+
+public final class OpCost {
+
+    private static final ThreadLocal<OpCost> CURRENT = ThreadLocal.withInitial(OpCost::new);
+
+    long reads, writes, bytesRead, bytesWritten;
+    long lockWaitNanos, lockHoldNanos;
+    long lockedAt;                                  //when the file lock this thread holds was granted
+
+    private OpCost() {
+    }
+
+    public static OpCost current() {
+        return CURRENT.get();
+    }
+
+    public OpCost reset() {
+        reads = writes = bytesRead = bytesWritten = 0;
+        lockWaitNanos = lockHoldNanos = 0;
+        return this;
+    }
+
+    public long reads() { return reads; }
+    public long writes() { return writes; }
+    public long bytesRead() { return bytesRead; }
+    public long bytesWritten() { return bytesWritten; }
+    public long lockWaitNanos() { return lockWaitNanos; }
+    public long lockHoldNanos() { return lockHoldNanos; }
+
+    void read(long bytes) {
+        reads++;
+        bytesRead += bytes;
+    }
+
+    void write(long bytes) {
+        writes++;
+        bytesWritten += bytes;
+    }
+}
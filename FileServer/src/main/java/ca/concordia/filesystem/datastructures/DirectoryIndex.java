@@ -0,0 +1,73 @@
+package ca.concordia.filesystem.datastructures;
+
+import java.util.Arrays;
+
+//In-memory name -> FEntry slot map so lookups do not scan the file table
+//Open addressing with linear probing over a power-of-two table kept at most half full;
+//deletes shift the following run back instead of leaving tombstones. Not thread safe (guarded by dirLock)
+
+public class DirectoryIndex {
+
+    private final String[] names;
+    private final int[] slots;
+    private final int mask;
+    private final int shift;
+    private int size;
+
+    public DirectoryIndex(int maxFiles) {
+        int cap = Integer.highestOneBit(Math.max(2, maxFiles) * 2 - 1) << 1;
+        names = new String[cap];
+        slots = new int[cap];
+        mask = cap - 1;
+        shift = 32 - Integer.numberOfTrailingZeros(cap);
+    }
+
+    public int size() { return size; }
+
+    //Slot holding name, or -1
+    public int get(String name) {
+        for (int i = bucket(name); names[i] != null; i = (i + 1) & mask)
+            if (names[i].equals(name)) return slots[i];
+        return -1;
+    }
+
+    //Returns false if the name is already present
+    public boolean put(String name, int slot) {
+        int i = bucket(name);
+        for (; names[i] != null; i = (i + 1) & mask)
+            if (names[i].equals(name)) return false;
+        names[i] = name;
+        slots[i] = slot;
+        size++;
+        return true;
+    }
+
+    public void remove(String name) {
+        int i = bucket(name);
+        while (names[i] != null && !names[i].equals(name)) i = (i + 1) & mask;
+        if (names[i] == null) return;
+        size--;
+
+        //Move back later members of the run that would become unreachable past the hole
+        int hole = i;
+        for (int j = (i + 1) & mask; names[j] != null; j = (j + 1) & mask) {
+            int home = bucket(names[j]);
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                names[hole] = names[j];
+                slots[hole] = slots[j];
+                hole = j;
+            }
+        }
+        names[hole] = null;
+    }
+
+    public void clear() {
+        Arrays.fill(names, null);
+        size = 0;
+    }
+
+    private int bucket(String name) {
+        //Fibonacci hashing: the top bits of the product spread similar short names apart
+        return (name.hashCode() * 0x9E3779B9) >>> shift;
+    }
+}
@@ -0,0 +1,118 @@
+package ca.concordia.filesystem.datastructures;
+
+import java.util.*;
+
+//Best-fit allocator of contiguous block extents
+//The FreeBlockMap stays the persisted truth; free extents are indexed by start (for coalescing)
+//and by (length, start) (for best fit) so both allocate and free are O(log extents)
+
+public class ExtentAllocator {
+
+    private final FreeBlockMap map;
+    private final TreeMap<Integer, Integer> byStart = new TreeMap<>();
+    private final TreeSet<Long> bySize = new TreeSet<>();
+
+    public ExtentAllocator(int nblocks) {
+        this.map = new FreeBlockMap(nblocks);
+        rebuildIndex();
+    }
+
+    public int capacity() { return map.capacity(); }
+
+    public int freeCount() { return map.freeCount(); }
+
+    public boolean isUsed(int blk) { return map.isUsed(blk); }
+
+    //Used while loading metadata; call rebuildIndex() once every extent is marked
+    public void markUsed(int start, int length) {
+        for (int b = start; b < start + length; b++) map.markUsed(b);
+    }
+
+    public void clear() {
+        map.clear();
+        rebuildIndex();
+    }
+
+    //Recomputes the free extent index from the bitmap
+    public void rebuildIndex() {
+        byStart.clear();
+        bySize.clear();
+        int b = 0, n = map.capacity();
+        while (b < n) {
+            if (map.isUsed(b)) { b++; continue; }
+            int start = b;
+            while (b < n && !map.isUsed(b)) b++;
+            addFree(start, b - start);
+        }
+    }
+
+    //Allocates count blocks as few extents as possible: the smallest single free extent that fits,
+    //otherwise the largest extents first. Returns {start, length} pairs, or null if there is not enough room
+    public int[][] allocate(int count) {
+        if (count > map.freeCount()) return null;
+
+        List<int[]> out = new ArrayList<>();
+        Long fit = bySize.ceiling(key(count, 0));
+        if (fit != null) {
+            out.add(take(start(fit), count));
+        } else {
+            int left = count;
+            while (left > 0) {
+                long largest = bySize.last();
+                int len = Math.min(length(largest), left);
+                out.add(take(start(largest), len));
+                left -= len;
+            }
+        }
+        return out.toArray(new int[0][]);
+    }
+
+    //Takes up to count free blocks starting exactly at start (the block after an extent that is growing);
+    //returns how many were taken, 0 if start is in use
+    public int extend(int start, int count) {
+        Integer len = byStart.get(start);
+        if (len == null) return 0;
+        int n = Math.min(len, count);
+        take(start, n);
+        return n;
+    }
+
+    public void free(int start, int length) {
+        for (int b = start; b < start + length; b++) map.markFree(b);
+
+        Map.Entry<Integer, Integer> before = byStart.lowerEntry(start);
+        if (before != null && before.getKey() + before.getValue() == start) {
+            removeFree(before.getKey(), before.getValue());
+            start = before.getKey();
+            length += before.getValue();
+        }
+        Integer afterLen = byStart.get(start + length);
+        if (afterLen != null) {
+            removeFree(start + length, afterLen);
+            length += afterLen;
+        }
+        addFree(start, length);
+    }
+
+    private int[] take(int start, int len) {
+        int extLen = byStart.get(start);
+        removeFree(start, extLen);
+        if (extLen > len) addFree(start + len, extLen - len);
+        for (int b = start; b < start + len; b++) map.markUsed(b);
+        return new int[]{start, len};
+    }
+
+    private void addFree(int start, int len) {
+        byStart.put(start, len);
+        bySize.add(key(len, start));
+    }
+
+    private void removeFree(int start, int len) {
+        byStart.remove(start);
+        bySize.remove(key(len, start));
+    }
+
+    private static long key(int len, int start) { return ((long) len << 32) | start; }
+    private static int length(long key) { return (int) (key >>> 32); }
+    private static int start(long key) { return (int) key; }
+}
@@ -7,8 +7,8 @@ public class FEntry implements Serializable {
     private static final long serialVersionUID = 1L;
 
     private String filename;    
-    private short filesize;      
-    private short firstBlock;     
+    private int filesize;      
+    private int firstBlock;      //first extent (FNode index), -1 when empty
 
     public FEntry() {
         this.filename = null;
@@ -36,19 +36,19 @@ public class FEntry implements Serializable {
         this.filename = filename;
     }
 
-    public short getFilesize() {
+    public int getFilesize() {
         return filesize;
     }
 
-    public void setFilesize(short filesize) {
+    public void setFilesize(int filesize) {
         this.filesize = filesize;
     }
 
-    public short getFirstBlock() {
+    public int getFirstBlock() {
         return firstBlock;
     }
 
-    public void setFirstBlock(short firstBlock) {
+    public void setFirstBlock(int firstBlock) {
         this.firstBlock = firstBlock;
     }
 
@@ -3,15 +3,18 @@ package ca.concordia.filesystem.datastructures;
 //Import Serializable to allow saving/loading the object without it, every time server loads data would be lost
 import java.io.Serializable;
 
+//One extent of a file: length consecutive blocks starting at blockIndex, chained through next
 public class FNode implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
-    private short blockIndex;    
-    private short next;          
+    private int blockIndex;    
+    private int length;
+    private int next;          
 
     public FNode() {
         this.blockIndex = -1;
+        this.length = 0;
         this.next = -1;
     }
 
@@ -20,20 +23,24 @@ public class FNode implements Serializable {
         return blockIndex >= 0;
     }
 
-    public short getBlockIndex() { return blockIndex; }
-    public void setBlockIndex(short blockIndex) { this.blockIndex = blockIndex; }
+    public int getBlockIndex() { return blockIndex; }
+    public void setBlockIndex(int blockIndex) { this.blockIndex = blockIndex; }
 
-    public short getNext() { return next; }
-    public void setNext(short next) { this.next = next; }
+    public int getLength() { return length; }
+    public void setLength(int length) { this.length = length; }
+
+    public int getNext() { return next; }
+    public void setNext(int next) { this.next = next; }
 
     //Clear node data(delete option)
     public void clear() {
         this.blockIndex = -1;
+        this.length = 0;
         this.next = -1;
     }
 
     @Override
     public String toString() {
-        return "[FNode block=" + blockIndex + " next=" + next + "]";
+        return "[FNode block=" + blockIndex + " length=" + length + " next=" + next + "]";
     }
 }
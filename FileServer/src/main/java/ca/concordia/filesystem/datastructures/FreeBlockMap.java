@@ -0,0 +1,82 @@
+package ca.concordia.filesystem.datastructures;
+
+import java.util.Arrays;
+
+//Free space bitmap for the data region, one bit per block (1 = used)
+//Searches a 64-bit word at a time so allocation does not scan every FNode
+
+public class FreeBlockMap {
+
+    private final long[] words;
+    private final int nblocks;
+    private int freeCount;
+    private int hint;            //word where the next free search starts
+
+    public FreeBlockMap(int nblocks) {
+        this.nblocks = nblocks;
+        this.words = new long[(nblocks + 63) >>> 6];
+        clear();
+    }
+
+    public int capacity() { return nblocks; }
+
+    public int freeCount() { return freeCount; }
+
+    //Raw 64-bit word covering blocks 64 * w to 64 * w + 63
+    public long word(int w) { return words[w]; }
+
+    public boolean isUsed(int blk) {
+        return (words[blk >>> 6] & (1L << blk)) != 0;
+    }
+
+    public void markUsed(int blk) {
+        long bit = 1L << blk;
+        if ((words[blk >>> 6] & bit) == 0) {
+            words[blk >>> 6] |= bit;
+            freeCount--;
+        }
+    }
+
+    public void markFree(int blk) {
+        long bit = 1L << blk;
+        if ((words[blk >>> 6] & bit) != 0) {
+            words[blk >>> 6] &= ~bit;
+            freeCount++;
+            if ((blk >>> 6) < hint) hint = blk >>> 6;
+        }
+    }
+
+    //Returns a free block and marks it used, or -1 when the volume is full
+    public int allocate() {
+        if (freeCount == 0) return -1;
+        for (int n = 0; n < words.length; n++) {
+            int w = hint + n;
+            if (w >= words.length) w -= words.length;
+            if (words[w] != -1L) {
+                int blk = (w << 6) + Long.numberOfTrailingZeros(~words[w]);
+                words[w] |= 1L << blk;
+                freeCount--;
+                hint = w;
+                return blk;
+            }
+        }
+        return -1;
+    }
+
+    //Allocates count blocks at once, or none (null) if there is not enough room
+    public int[] allocate(int count) {
+        if (count > freeCount) return null;
+        int[] blocks = new int[count];
+        for (int i = 0; i < count; i++) blocks[i] = allocate();
+        return blocks;
+    }
+
+    //Marks every block free; bits past the end of the volume stay set so they are never handed out
+    public void clear() {
+        Arrays.fill(words, 0L);
+        int tail = nblocks & 63;
+        if (tail != 0) words[words.length - 1] = -1L << tail;
+        freeCount = nblocks;
+        hint = 0;
+    }
+}
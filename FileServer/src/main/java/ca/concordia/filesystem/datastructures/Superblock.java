@@ -0,0 +1,114 @@
+package ca.concordia.filesystem.datastructures;
+
+import java.io.*;
+
+//Volume header stored at offset 0: records the geometry the volume was formatted with
+//Layout after it: FEntry table, FNode (extent) table, the metadata journal, then the data blocks
+//Versions 2 and 3 also reserve a free block bitmap after the FNode table; it is never read, the allocator is
+//rebuilt from the FNodes on mount, but the region stays so those volumes keep their offsets
+
+public class Superblock {
+
+    public static final int MAGIC = 0x46535331;   //"FSS1"
+    public static final int VERSION = 4;            //2: FNodes are extents, 3: metadata journal, 4: no bitmap region
+    public static final int SIZE = 32;             //bytes reserved for the header
+
+    public static final int ENTRY_SIZE = 19;       //11 name + 4 size + 4 first block
+    public static final int NODE_SIZE = 12;        //4 start block + 4 length + 4 next
+
+    private final int version;
+    private final int blockSize;
+    private final int maxFiles;
+    private final int maxBlocks;
+    private final int journalBlocks;               //0 on version 2 volumes: metadata is written in place
+
+    public Superblock(int blockSize, int maxFiles, int maxBlocks) {
+        this(blockSize, maxFiles, maxBlocks, -1);
+    }
+
+    //journalBlocks < 0 picks the default size
+    public Superblock(int blockSize, int maxFiles, int maxBlocks, int journalBlocks) {
+        this(VERSION, blockSize, maxFiles, maxBlocks, journalBlocks);
+    }
+
+    private Superblock(int version, int blockSize, int maxFiles, int maxBlocks, int journalBlocks) {
+        if (blockSize < 64 || Integer.bitCount(blockSize) != 1)
+            throw new IllegalArgumentException("Block size must be a power of two >= 64");
+        if (maxFiles <= 0 || maxBlocks <= 0)
+            throw new IllegalArgumentException("Volume needs at least one file and one block");
+        this.version = version;
+        this.blockSize = blockSize;
+        this.maxFiles = maxFiles;
+        this.maxBlocks = maxBlocks;
+        this.journalBlocks = journalBlocks < 0 ? defaultJournalBlocks(blockSize, metadataBlocks()) : journalBlocks;
+    }
+
+    //Twice the metadata, so a checkpoint can run while the other half fills; at least 8 blocks, at most 8 MB
+    private static int defaultJournalBlocks(int blockSize, int metadataBlocks) {
+        return Math.max(8, Math.min(2 * metadataBlocks, 8 * 1024 * 1024 / blockSize));
+    }
+
+    //Largest geometry whose metadata and data blocks fit in totalSize bytes
+    public static Superblock forVolume(long totalSize, int blockSize, int maxFiles) {
+        long total = totalSize / blockSize;
+        long metaBytes = SIZE + (long) maxFiles * ENTRY_SIZE + total * NODE_SIZE;
+        int metaBlocks = (int) Math.min(Integer.MAX_VALUE, (metaBytes + blockSize - 1) / blockSize);
+        long data = total - metaBlocks - defaultJournalBlocks(blockSize, metaBlocks);
+        if (data <= 0)
+            throw new IllegalArgumentException("Volume too small for " + maxFiles + " files");
+        if (data > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Volume has too many blocks, use a larger block size");
+        return new Superblock(blockSize, maxFiles, (int) data);
+    }
+
+    public int getVersion() { return version; }
+    public int getBlockSize() { return blockSize; }
+    public int getMaxFiles() { return maxFiles; }
+    public int getMaxBlocks() { return maxBlocks; }
+    public int getJournalBlocks() { return journalBlocks; }
+
+    public long entryOffset(int slot) { return SIZE + (long) slot * ENTRY_SIZE; }
+    public long nodeOffset(int node) { return entryOffset(maxFiles) + (long) node * NODE_SIZE; }
+
+    public long metadataBytes() { return nodeOffset(maxBlocks) + (version < 4 ? ((maxBlocks + 63) / 64) * 8L : 0); }
+
+    public int metadataBlocks() { return (int) ((metadataBytes() + blockSize - 1) / blockSize); }
+
+    public long journalOffset() { return (long) metadataBlocks() * blockSize; }
+
+    //Byte offset of a data block on the volume
+    public long blockOffset(int blk) { return deviceBlock(blk) * blockSize; }
+
+    //Same block counted in device blocks (metadata and journal blocks come first)
+    public long deviceBlock(int blk) { return (long) metadataBlocks() + journalBlocks + blk; }
+
+    public long volumeBytes() { return blockOffset(maxBlocks); }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(version);
+        out.writeInt(blockSize);
+        out.writeInt(maxFiles);
+        out.writeInt(maxBlocks);
+        out.writeInt(journalBlocks);
+        out.write(new byte[SIZE - 24]);
+    }
+
+    public static Superblock read(DataInput in) throws IOException {
+        int magic = in.readInt();
+        int version = in.readInt();
+        if (magic != MAGIC)
+            throw new IOException("ERROR: unrecognized volume format (written before superblocks? move it aside to format a new one)");
+        if (version < 2 || version > VERSION)
+            throw new IOException("ERROR: unsupported volume version " + version);
+        int blockSize = in.readInt(), maxFiles = in.readInt(), maxBlocks = in.readInt();
+        Superblock sb = new Superblock(version, blockSize, maxFiles, maxBlocks, version == 2 ? 0 : in.readInt());
+        in.skipBytes(version == 2 ? SIZE - 20 : SIZE - 24);
+        return sb;
+    }
+
+    @Override
+    public String toString() {
+        return "[Superblock v" + version + " block=" + blockSize + " files=" + maxFiles + " blocks=" + maxBlocks + " journal=" + journalBlocks + "]";
+    }
+}
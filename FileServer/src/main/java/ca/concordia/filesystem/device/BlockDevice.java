@@ -0,0 +1,71 @@
+package ca.concordia.filesystem.device;
+
+//Storage underneath FileSystemManager: a fixed-size, byte-addressed volume read and written in blocks
+//Implementations must allow concurrent calls on different ranges
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+public interface BlockDevice extends Closeable {
+
+    //Unit used by the block methods below
+    int blockSize();
+
+    //Size of the volume in bytes
+    long capacity();
+
+    //Fills dst.remaining() bytes starting at byte offset pos
+    void read(long pos, ByteBuffer dst) throws IOException;
+
+    //Writes src.remaining() bytes starting at byte offset pos
+    void write(long pos, ByteBuffer src) throws IOException;
+
+    //Makes every completed write durable
+    void flush() throws IOException;
+
+    default void readBlock(long block, ByteBuffer dst) throws IOException {
+        read(block * blockSize(), dst);
+    }
+
+    default void writeBlock(long block, ByteBuffer src) throws IOException {
+        write(block * blockSize(), src);
+    }
+
+    //Sends count bytes starting at pos to target and returns how many were written, which is fewer
+    //when a non-blocking target fills up. This default copies through a heap buffer; FileChannel and
+    //mapped devices hand the bytes to the target without it
+    default long transferTo(long pos, long count, WritableByteChannel target) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.min(count, 64 * 1024));
+        long done = 0;
+        while (done < count) {
+            buf.clear().limit((int) Math.min(buf.capacity(), count - done));
+            read(pos + done, buf);
+            buf.flip();
+            done += target.write(buf);
+            if (buf.hasRemaining()) break;
+        }
+        return done;
+    }
+
+    //Vectored read of consecutive bytes starting at block into several buffers
+    default void readBlocks(long block, ByteBuffer[] dsts) throws IOException {
+        long pos = block * blockSize();
+        for (ByteBuffer dst : dsts) {
+            int n = dst.remaining();
+            read(pos, dst);
+            pos += n;
+        }
+    }
+
+    //Vectored write of several buffers to consecutive bytes starting at block
+    default void writeBlocks(long block, ByteBuffer[] srcs) throws IOException {
+        long pos = block * blockSize();
+        for (ByteBuffer src : srcs) {
+            int n = src.remaining();
+            write(pos, src);
+            pos += n;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package ca.concordia.filesystem.device;
+
+//Bounded block cache in front of another BlockDevice, frames kept off-heap and evicted with CLOCK
+//Split into segments that each own a slice of the frames and their own lock; 64 consecutive blocks
+//always share a segment so a cold extent read is still a single read on the device underneath.
+//Every FileSystemManager write goes through here, so writeFile/deleteFile keep cached frames current.
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class CachingBlockDevice implements BlockDevice {
+
+    private static final int CHUNK_SHIFT = 6;
+
+    private final BlockDevice backing;
+    private final int blockSize;
+    private final long cachedBlocks;   //whole blocks inside the device capacity
+    private final boolean writeBack;
+    private final Segment[] segments;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder writebacks = new LongAdder();
+
+    public CachingBlockDevice(BlockDevice backing, int capacityBlocks, boolean writeBack) {
+        this.backing = backing;
+        this.blockSize = backing.blockSize();
+        this.cachedBlocks = backing.capacity() / blockSize;
+        this.writeBack = writeBack;
+
+        int nseg = Integer.highestOneBit(Math.max(1, Math.min(16, capacityBlocks / 64)));
+        segments = new Segment[nseg];
+        for (int i = 0; i < nseg; i++) segments[i] = new Segment(Math.max(1, capacityBlocks / nseg));
+    }
+
+    //Wraps the device when -Dfs.cache.blocks is set; -Dfs.cache.mode=write-back defers writes until flush()
+    public static BlockDevice fromSystemProperties(BlockDevice device) {
+        int blocks = Integer.getInteger("fs.cache.blocks", 0);
+        if (blocks <= 0) return device;
+        boolean writeBack = "write-back".equalsIgnoreCase(System.getProperty("fs.cache.mode", "write-through"));
+        return new CachingBlockDevice(device, blocks, writeBack);
+    }
+
+    public int blockSize() { return blockSize; }
+
+    public long capacity() { return backing.capacity(); }
+
+    public long hits() { return hits.sum(); }
+    public long misses() { return misses.sum(); }
+    public long evictions() { return evictions.sum(); }
+    public long writebacks() { return writebacks.sum(); }
+
+    public double hitRate() {
+        long h = hits(), total = h + misses();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public void read(long pos, ByteBuffer dst) throws IOException {
+        long prefetchedUpTo = -1;
+        while (dst.hasRemaining()) {
+            long blk = pos / blockSize;
+            int off = (int) (pos % blockSize);
+            int n = Math.min(blockSize - off, dst.remaining());
+            if (blk >= cachedBlocks) {
+                backing.read(pos, dst);
+                return;
+            }
+
+            Segment seg = segment(blk);
+            seg.lock.lock();
+            try {
+                int frame = seg.find(blk);
+                if (frame < 0) {
+                    long last = Math.min((pos + dst.remaining() - 1) / blockSize, cachedBlocks - 1);
+                    prefetchedUpTo = blk + seg.fill(blk, last);
+                    frame = seg.find(blk);
+                } else if (blk >= prefetchedUpTo) {
+                    hits.increment();
+                }
+                seg.ref[frame] = true;
+                dst.put(dst.position(), seg.slab, frame * blockSize + off, n);
+                dst.position(dst.position() + n);
+            } finally {
+                seg.lock.unlock();
+            }
+            pos += n;
+        }
+    }
+
+    public void write(long pos, ByteBuffer src) throws IOException {
+        if (!writeBack) {
+            //Device first, then patch resident frames: a concurrent miss either sees the new bytes
+            //on the device or installs the old ones before this patch runs
+            ByteBuffer copy = src.duplicate();
+            backing.write(pos, src);
+            patch(pos, copy, false);
+        } else {
+            patch(pos, src, true);
+        }
+    }
+
+    //Write-through keeps the backing device current, so streaming can bypass the cache
+    @Override
+    public long transferTo(long pos, long count, WritableByteChannel target) throws IOException {
+        return writeBack ? BlockDevice.super.transferTo(pos, count, target) : backing.transferTo(pos, count, target);
+    }
+
+    //Copies src over the cached frames it covers; write-back also allocates and dirties frames
+    private void patch(long pos, ByteBuffer src, boolean allocate) throws IOException {
+        while (src.hasRemaining()) {
+            long blk = pos / blockSize;
+            int off = (int) (pos % blockSize);
+            int n = Math.min(blockSize - off, src.remaining());
+            if (blk >= cachedBlocks) {
+                if (allocate) backing.write(pos, src);
+                return;
+            }
+
+            Segment seg = segment(blk);
+            seg.lock.lock();
+            try {
+                int frame = seg.find(blk);
+                if (frame < 0 && allocate) {
+                    frame = n == blockSize ? seg.install(blk) : -1;
+                    if (frame < 0) {
+                        seg.fill(blk, blk);
+                        frame = seg.find(blk);
+                    }
+                }
+                if (frame >= 0) {
+                    seg.slab.put(frame * blockSize + off, src, src.position(), n);
+                    seg.ref[frame] = true;
+                    if (allocate) seg.dirty[frame] = true;
+                }
+                src.position(src.position() + n);
+            } finally {
+                seg.lock.unlock();
+            }
+            pos += n;
+        }
+    }
+
+    public void flush() throws IOException {
+        for (Segment seg : segments) {
+            seg.lock.lock();
+            try {
+                for (int f = 0; f < seg.tags.length; f++)
+                    if (seg.dirty[f]) seg.writeBack(f);
+            } finally {
+                seg.lock.unlock();
+            }
+        }
+        backing.flush();
+    }
+
+    public void close() throws IOException {
+        flush();
+        backing.close();
+    }
+
+    private Segment segment(long blk) {
+        return segments[(int) ((blk >>> CHUNK_SHIFT) & (segments.length - 1))];
+    }
+
+    private final class Segment {
+        final ReentrantLock lock = new ReentrantLock();
+        final ByteBuffer slab;
+        final long[] tags;                 //cached block per frame, -1 when empty
+        final boolean[] ref;
+        final boolean[] dirty;
+        final HashMap<Long, Integer> index = new HashMap<>();
+        int hand;
+
+        Segment(int frames) {
+            slab = ByteBuffer.allocateDirect(frames * blockSize);
+            tags = new long[frames];
+            ref = new boolean[frames];
+            dirty = new boolean[frames];
+            Arrays.fill(tags, -1L);
+        }
+
+        int find(long blk) {
+            Integer f = index.get(blk);
+            return f == null ? -1 : f;
+        }
+
+        //Loads blk and the missing blocks after it (up to last, same chunk) with one device read
+        int fill(long blk, long last) throws IOException {
+            long chunkEnd = ((blk >>> CHUNK_SHIFT) + 1) << CHUNK_SHIFT;
+            int count = 1;
+            while (blk + count <= last && blk + count < chunkEnd && count < tags.length / 2 && find(blk + count) < 0)
+                count++;
+
+            ByteBuffer tmp = ByteBuffer.allocate(count * blockSize);
+            backing.read(blk * blockSize, tmp);
+            misses.add(count);
+            for (int i = 0; i < count; i++) {
+                int frame = install(blk + i);
+                slab.put(frame * blockSize, tmp, i * blockSize, blockSize);
+            }
+            return count;
+        }
+
+        //Claims a frame for blk with CLOCK, writing back a dirty victim first
+        int install(long blk) throws IOException {
+            while (ref[hand]) {
+                ref[hand] = false;
+                hand = (hand + 1) % tags.length;
+            }
+            int frame = hand;
+            hand = (hand + 1) % tags.length;
+
+            if (tags[frame] >= 0) {
+                if (dirty[frame]) writeBack(frame);
+                index.remove(tags[frame]);
+                evictions.increment();
+            }
+            tags[frame] = blk;
+            ref[frame] = true;
+            index.put(blk, frame);
+            return frame;
+        }
+
+        void writeBack(int frame) throws IOException {
+            ByteBuffer out = slab.duplicate();
+            out.position(frame * blockSize).limit(frame * blockSize + blockSize);
+            backing.write(tags[frame] * blockSize, out);
+            dirty[frame] = false;
+            writebacks.increment();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package ca.concordia.filesystem.device;
+
+//Volume file opened with O_DIRECT (ExtendedOpenOption.DIRECT), bypassing the OS page cache
+//Direct I/O needs sector-aligned offsets, lengths and buffers, so every request goes through an
+//aligned per-thread bounce buffer; unaligned writes are read-modify-write under an exclusive lock
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.concurrent.locks.*;
+
+public class DirectBlockDevice implements BlockDevice {
+
+    private final FileChannel channel;
+    private final int blockSize;
+    private final int align;
+    private final long capacity;
+
+    //Aligned writes share the lock, read-modify-write takes it exclusively so it cannot lose a sector update
+    private final ReadWriteLock rmwLock = new ReentrantReadWriteLock();
+    private final ThreadLocal<ByteBuffer> bounce = new ThreadLocal<>();
+
+    public DirectBlockDevice(Path path, int blockSize, long capacity) throws IOException {
+        OpenOption direct = directOption();
+        if (direct == null)
+            throw new IOException("ERROR: direct I/O is not available on this JVM");
+
+        this.align = (int) Files.getFileStore(path.toAbsolutePath().getParent()).getBlockSize();
+        long rounded = (capacity + align - 1) / align * align;
+        try (RandomAccessFile f = new RandomAccessFile(path.toFile(), "rw")) {
+            if (f.length() < rounded) f.setLength(rounded);
+            this.capacity = f.length();
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, direct);
+        this.blockSize = blockSize;
+    }
+
+    //com.sun.nio.file.ExtendedOpenOption lives in jdk.unsupported, so it is looked up rather than linked
+    public static OpenOption directOption() {
+        try {
+            Class<?> ext = Class.forName("com.sun.nio.file.ExtendedOpenOption");
+            return (OpenOption) ext.getField("DIRECT").get(null);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    public int blockSize() { return blockSize; }
+
+    public long capacity() { return capacity; }
+
+    public void read(long pos, ByteBuffer dst) throws IOException {
+        int n = dst.remaining();
+        if (pos + n > capacity) throw new EOFException();
+        long start = pos / align * align;
+        ByteBuffer buf = bounce((int) (roundUp(pos + n) - start));
+        readAligned(buf, start);
+        buf.position((int) (pos - start)).limit((int) (pos - start) + n);
+        dst.put(buf);
+    }
+
+    public void write(long pos, ByteBuffer src) throws IOException {
+        int n = src.remaining();
+        if (pos + n > capacity) throw new EOFException();
+        long start = pos / align * align;
+        int span = (int) (roundUp(pos + n) - start);
+        ByteBuffer buf = bounce(span);
+
+        boolean aligned = start == pos && span == n;
+        Lock l = aligned ? rmwLock.readLock() : rmwLock.writeLock();
+        l.lock();
+        try {
+            if (!aligned) {
+                readAligned(buf, start);
+                buf.clear().limit(span);
+            }
+            buf.position((int) (pos - start));
+            buf.put(src);
+            buf.clear().limit(span);
+            while (buf.hasRemaining())
+                start += channel.write(buf, start);
+        } finally {
+            l.unlock();
+        }
+    }
+
+    public void flush() throws IOException {
+        channel.force(false);
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void readAligned(ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int r = channel.read(buf, pos);
+            if (r < 0) throw new EOFException();
+            pos += r;
+        }
+        buf.flip();
+    }
+
+    private long roundUp(long v) {
+        return (v + align - 1) / align * align;
+    }
+
+    //Cleared, aligned buffer with at least size bytes, limited to size
+    private ByteBuffer bounce(int size) {
+        ByteBuffer buf = bounce.get();
+        if (buf == null || buf.capacity() < size) {
+            buf = ByteBuffer.allocateDirect(size + align).alignedSlice(align);
+            bounce.set(buf);
+        }
+        buf.clear().limit(size);
+        return buf;
+    }
+}
@@ -0,0 +1,88 @@
+package ca.concordia.filesystem.device;
+
+//Volume file accessed with positional FileChannel reads and writes (pread/pwrite)
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+
+public class FileBlockDevice implements BlockDevice {
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int blockSize;
+    private final long capacity;
+    private final Object positionLock = new Object();
+
+    public FileBlockDevice(Path path, int blockSize, long capacity) throws IOException {
+        this.file = new RandomAccessFile(path.toFile(), "rw");
+        this.channel = file.getChannel();
+        this.blockSize = blockSize;
+        if (file.length() < capacity) file.setLength(capacity);
+        this.capacity = file.length();
+    }
+
+    public int blockSize() { return blockSize; }
+
+    public long capacity() { return capacity; }
+
+    public void read(long pos, ByteBuffer dst) throws IOException {
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, pos);
+            if (n < 0) throw new EOFException();
+            pos += n;
+        }
+    }
+
+    public void write(long pos, ByteBuffer src) throws IOException {
+        while (src.hasRemaining())
+            pos += channel.write(src, pos);
+    }
+
+    //Scatter/gather calls move the channel position, so they are serialized with each other
+    @Override
+    public void readBlocks(long block, ByteBuffer[] dsts) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer dst : dsts) remaining += dst.remaining();
+        synchronized (positionLock) {
+            channel.position(block * blockSize);
+            while (remaining > 0) {
+                long n = channel.read(dsts);
+                if (n < 0) throw new EOFException();
+                remaining -= n;
+            }
+        }
+    }
+
+    @Override
+    public void writeBlocks(long block, ByteBuffer[] srcs) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer src : srcs) remaining += src.remaining();
+        synchronized (positionLock) {
+            channel.position(block * blockSize);
+            while (remaining > 0) remaining -= channel.write(srcs);
+        }
+    }
+
+    //sendfile(2) where the platform has it: page cache straight to the socket
+    @Override
+    public long transferTo(long pos, long count, WritableByteChannel target) throws IOException {
+        long done = 0;
+        while (done < count) {
+            long n = channel.transferTo(pos + done, count - done, target);
+            if (n <= 0) break;
+            done += n;
+        }
+        return done;
+    }
+
+    public void flush() throws IOException {
+        channel.force(false);
+    }
+
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,92 @@
+package ca.concordia.filesystem.device;
+
+//Volume file mapped into memory: reads and writes become copies into the page cache
+//Mapped in 1 GB segments since a single MappedByteBuffer is limited to 2 GB
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+
+public class MappedBlockDevice implements BlockDevice {
+
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer[] segments;
+    private final int blockSize;
+    private final long capacity;
+
+    public MappedBlockDevice(Path path, int blockSize, long capacity) throws IOException {
+        this.file = new RandomAccessFile(path.toFile(), "rw");
+        this.blockSize = blockSize;
+        if (file.length() < capacity) file.setLength(capacity);
+        this.capacity = file.length();
+
+        FileChannel channel = file.getChannel();
+        int count = (int) ((this.capacity + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+        segments = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long start = (long) i << SEGMENT_SHIFT;
+            segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(SEGMENT_SIZE, this.capacity - start));
+        }
+    }
+
+    public int blockSize() { return blockSize; }
+
+    public long capacity() { return capacity; }
+
+    //Absolute get/put only, so concurrent callers never share a buffer position
+    public void read(long pos, ByteBuffer dst) throws IOException {
+        while (dst.hasRemaining()) {
+            if (pos >= capacity) throw new EOFException();
+            MappedByteBuffer seg = segments[(int) (pos >>> SEGMENT_SHIFT)];
+            int off = (int) (pos & (SEGMENT_SIZE - 1));
+            int n = Math.min(dst.remaining(), seg.capacity() - off);
+            dst.put(dst.position(), seg, off, n);
+            dst.position(dst.position() + n);
+            pos += n;
+        }
+    }
+
+    public void write(long pos, ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            if (pos >= capacity) throw new EOFException();
+            MappedByteBuffer seg = segments[(int) (pos >>> SEGMENT_SHIFT)];
+            int off = (int) (pos & (SEGMENT_SIZE - 1));
+            int n = Math.min(src.remaining(), seg.capacity() - off);
+            seg.put(off, src, src.position(), n);
+            src.position(src.position() + n);
+            pos += n;
+        }
+    }
+
+    //Writes slices of the mapping, so the bytes go from the mapped pages to the target
+    @Override
+    public long transferTo(long pos, long count, WritableByteChannel target) throws IOException {
+        long done = 0;
+        while (done < count) {
+            long p = pos + done;
+            if (p >= capacity) throw new EOFException();
+            MappedByteBuffer seg = segments[(int) (p >>> SEGMENT_SHIFT)];
+            int off = (int) (p & (SEGMENT_SIZE - 1));
+            int n = (int) Math.min(count - done, seg.capacity() - off);
+            int written = target.write(seg.slice(off, n));
+            done += written;
+            if (written < n) break;
+        }
+        return done;
+    }
+
+    //Durability point: flush dirty pages of every segment to the file
+    public void flush() {
+        for (MappedByteBuffer seg : segments) seg.force();
+    }
+
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,45 @@
+package ca.concordia.filesystem.device;
+
+//Volume kept entirely in memory (heap or off-heap), for tests and benchmarks without disk noise
+//Nothing survives the process; flush() has nothing to do
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+public class MemoryBlockDevice implements BlockDevice {
+
+    private final ByteBuffer mem;
+    private final int blockSize;
+
+    public MemoryBlockDevice(int blockSize, long capacity, boolean offHeap) {
+        if (capacity > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("In-memory volumes are limited to 2 GB");
+        this.blockSize = blockSize;
+        this.mem = offHeap ? ByteBuffer.allocateDirect((int) capacity) : ByteBuffer.allocate((int) capacity);
+    }
+
+    public int blockSize() { return blockSize; }
+
+    public long capacity() { return mem.capacity(); }
+
+    //Absolute get/put only, so concurrent callers never share a buffer position
+    public void read(long pos, ByteBuffer dst) throws IOException {
+        int n = dst.remaining();
+        if (pos + n > mem.capacity()) throw new EOFException();
+        dst.put(dst.position(), mem, (int) pos, n);
+        dst.position(dst.position() + n);
+    }
+
+    public void write(long pos, ByteBuffer src) throws IOException {
+        int n = src.remaining();
+        if (pos + n > mem.capacity()) throw new EOFException();
+        mem.put((int) pos, src, src.position(), n);
+        src.position(src.position() + n);
+    }
+
+    public void flush() {
+    }
+
+    public void close() {
+    }
+}
@@ -0,0 +1,43 @@
+package ca.concordia.filesystem.device;
+
+import ca.concordia.filesystem.datastructures.Superblock;
+
+import java.io.*;
+import java.nio.file.*;
+
+//Which BlockDevice backs a volume
+public enum StorageMode {
+    RAF,      //positional FileChannel reads and writes (one syscall per request)
+    MMAP,     //memory-mapped volume, reads and writes are memory copies
+    DIRECT,   //O_DIRECT, bypasses the page cache where the platform supports it
+    MEMORY;   //heap-only volume, nothing is written to the file
+
+    //Selected with -Dfs.storage=raf|mmap|direct|memory, RAF when unset
+    public static StorageMode fromSystemProperty() {
+        return valueOf(System.getProperty("fs.storage", "raf").toUpperCase());
+    }
+
+    //Opens the volume file; an existing file keeps the block size recorded in its superblock
+    public BlockDevice open(String filename, Superblock format, long totalSize) throws IOException {
+        long capacity = Math.max(totalSize, format.volumeBytes());
+        if (this == MEMORY)
+            return new MemoryBlockDevice(format.getBlockSize(), capacity, false);
+
+        Path path = Path.of(filename);
+        int blockSize = format.getBlockSize();
+        if (Files.exists(path) && Files.size(path) > 0) {
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+                blockSize = Superblock.read(in).getBlockSize();
+            }
+            capacity = Files.size(path);
+        }
+
+        BlockDevice device;
+        switch (this) {
+            case MMAP:   device = new MappedBlockDevice(path, blockSize, capacity); break;
+            case DIRECT: device = new DirectBlockDevice(path, blockSize, capacity); break;
+            default:     device = new FileBlockDevice(path, blockSize, capacity);
+        }
+        return CachingBlockDevice.fromSystemProperties(device);
+    }
+}
@@ -0,0 +1,171 @@
+package ca.concordia.server;
+
+//Length-prefixed binary framing, entered by sending the text command "PROTO BINARY"
+//Request:  opcode(1) requestId(4) nameLength(2) payloadLength(4) name payload
+//Response: status(1) requestId(4) payloadLength(4) payload
+//All integers are big-endian. Payloads are raw bytes: file content for WRITE/READ, comma separated
+//names for LIST and the error message when status is STATUS_ERROR
+//Partial I/O payloads: READ_RANGE offset(8) length(4); WRITE_AT offset(8) data; APPEND data, answered
+//with the offset(8) it landed at; TRUNCATE size(8). Large uploads are sent as a pipeline of APPEND or
+//WRITE_AT chunks, which run in order because they name the same file
+
+import ca.concordia.filesystem.CachedFile;
+import ca.concordia.filesystem.FileReadHandle;
+import ca.concordia.filesystem.FileSystemManager;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class BinaryProtocol {
+
+    public static final byte CREATE = 1;
+    public static final byte READ = 2;
+    public static final byte WRITE = 3;
+    public static final byte DELETE = 4;
+    public static final byte LIST = 5;
+    public static final byte QUIT = 6;
+    public static final byte READ_RANGE = 7;
+    public static final byte WRITE_AT = 8;
+    public static final byte APPEND = 9;
+    public static final byte TRUNCATE = 10;
+
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_ERROR = 1;
+
+    public static final int REQUEST_HEADER = 11;
+    public static final int RESPONSE_HEADER = 9;
+
+    //READs of files at least this large are streamed from the device (-Dfs.server.zeroCopyMin, default 64 KB)
+    public static final int ZERO_COPY_MIN = Integer.getInteger("fs.server.zeroCopyMin", 64 * 1024);
+
+    //Largest READ_RANGE answered in one response (-Dfs.server.maxChunk, default 4 MB)
+    public static final int MAX_CHUNK = Integer.getInteger("fs.server.maxChunk", 4 * 1024 * 1024);
+
+    //Answer to a request over -Dfs.server.maxLine, text line or binary frame, on either front end
+    public static final String TOO_LONG_ERROR = "ERROR: command too long";
+
+    private static final byte[] EMPTY = new byte[0];
+
+    //Metrics names of the opcodes, as the text protocol reports them
+    private static final String[] COMMANDS = {"OTHER", "CREATE", "READ", "WRITE", "DELETE", "LIST", "OTHER",
+            "READAT", "WRITEAT", "APPEND", "TRUNCATE"};
+
+    private final FileSystemManager fs;
+    private final ServerMetrics metrics;
+
+    public BinaryProtocol(FileSystemManager fs) {
+        this(fs, new ServerMetrics(fs));
+    }
+
+    public BinaryProtocol(FileSystemManager fs, ServerMetrics metrics) {
+        this.fs = fs;
+        this.metrics = metrics;
+    }
+
+    //Runs one request; the response is a header buffer followed by the payload, ready for a gathering write
+    public Reply execute(byte opcode, int requestId, String name, byte[] payload) {
+        long started = metrics.start();
+        Reply reply = run(opcode, requestId, name, payload);
+        long out = reply.file == null ? 0 : reply.file.size();
+        for (ByteBuffer b : reply.buffers) out += b.remaining();
+        metrics.record(opcode > 0 && opcode < COMMANDS.length ? COMMANDS[opcode] : "OTHER", started,
+                REQUEST_HEADER + (name == null ? 0 : name.length()) + (payload == null ? 0 : payload.length), out, reply.buffers[0].get(0) == STATUS_OK);
+        return reply;
+    }
+
+    private Reply run(byte opcode, int requestId, String name, byte[] payload) {
+        try {
+            switch (opcode) {
+                case CREATE:
+                    fs.createFile(name);
+                    return response(STATUS_OK, requestId, EMPTY);
+
+                case READ:
+                    //Large files go from the device to the socket; small ones straight from the cached snapshot
+                    if (fs.fileSize(name) >= ZERO_COPY_MIN) {
+                        FileReadHandle stream = fs.openRead(name);
+                        return new Reply(new ByteBuffer[]{header(STATUS_OK, requestId, stream.size())}, stream);
+                    }
+                    CachedFile file = fs.readCached(name);
+                    return response(STATUS_OK, requestId, file.getData());
+
+                case WRITE:
+                    fs.writeFile(name, payload);
+                    return response(STATUS_OK, requestId, EMPTY);
+
+                case DELETE:
+                    fs.deleteFile(name);
+                    return response(STATUS_OK, requestId, EMPTY);
+
+                case LIST:
+                    return response(STATUS_OK, requestId, String.join(",", fs.listFiles()).getBytes(StandardCharsets.UTF_8));
+
+                case READ_RANGE: {
+                    if (payload.length != 12) return error(requestId, "ERROR: malformed request");
+                    ByteBuffer args = ByteBuffer.wrap(payload);
+                    long offset = args.getLong();
+                    int length = args.getInt();
+                    if (length > MAX_CHUNK) return error(requestId, "ERROR: chunk larger than " + MAX_CHUNK);
+                    return response(STATUS_OK, requestId, fs.read(name, offset, length));
+                }
+
+                case WRITE_AT: {
+                    if (payload.length < 8) return error(requestId, "ERROR: malformed request");
+                    long offset = ByteBuffer.wrap(payload).getLong();
+                    fs.write(name, offset, Arrays.copyOfRange(payload, 8, payload.length));
+                    return response(STATUS_OK, requestId, EMPTY);
+                }
+
+                case APPEND:
+                    return response(STATUS_OK, requestId, ByteBuffer.allocate(8).putLong(fs.append(name, payload)).array());
+
+                case TRUNCATE:
+                    if (payload.length != 8) return error(requestId, "ERROR: malformed request");
+                    fs.truncate(name, ByteBuffer.wrap(payload).getLong());
+                    return response(STATUS_OK, requestId, EMPTY);
+
+                case QUIT:
+                    return response(STATUS_OK, requestId, EMPTY);
+
+                default:
+                    return error(requestId, "ERROR: unknown opcode " + opcode);
+            }
+        } catch (Exception e) {
+            return error(requestId, e.getMessage());
+        }
+    }
+
+    public static Reply error(int requestId, String message) {
+        return response(STATUS_ERROR, requestId, String.valueOf(message).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static Reply response(byte status, int requestId, byte[] payload) {
+        return new Reply(new ByteBuffer[]{header(status, requestId, payload.length), ByteBuffer.wrap(payload)}, null);
+    }
+
+    private static ByteBuffer header(byte status, int requestId, long length) {
+        ByteBuffer header = ByteBuffer.allocate(RESPONSE_HEADER);
+        header.put(status).putInt(requestId).putInt((int) length).flip();
+        return header;
+    }
+
+    //Client side: encodes one request frame
+    public static byte[] request(byte opcode, int requestId, String name, byte[] payload) {
+        byte[] n = name == null ? EMPTY : name.getBytes(StandardCharsets.UTF_8);
+        byte[] p = payload == null ? EMPTY : payload;
+        ByteBuffer buf = ByteBuffer.allocate(REQUEST_HEADER + n.length + p.length);
+        buf.put(opcode).putInt(requestId).putShort((short) n.length).putInt(p.length).put(n).put(p);
+        return buf.array();
+    }
+
+    //Response bytes, followed by the content of file when a READ is streamed; whoever sends it closes file
+    public static class Reply {
+        public final ByteBuffer[] buffers;
+        public final FileReadHandle file;
+
+        Reply(ByteBuffer[] buffers, FileReadHandle file) {
+            this.buffers = buffers;
+            this.file = file;
+        }
+    }
+}
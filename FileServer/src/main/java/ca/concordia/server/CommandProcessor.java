@@ -0,0 +1,197 @@
+package ca.concordia.server;
+
+//Text protocol shared by the blocking and NIO front ends: one command line in, one response out
+//Responses are returned as the exact bytes to send, line terminator included
+//Batch commands (MCREATE a b .., MREAD a b .., MWRITE name length content ..) answer "OK n" followed by one
+//line per item, each what the single-file command would have answered
+
+import ca.concordia.filesystem.BatchResult;
+import ca.concordia.filesystem.CachedFile;
+import ca.concordia.filesystem.FileSystemManager;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+public class CommandProcessor {
+
+    private static final byte[] NEWLINE = System.lineSeparator().getBytes();
+    private static final byte[] OK_PREFIX = "OK ".getBytes();
+
+    //Returned for QUIT; the caller closes the connection once it is sent
+    public static final byte[] CLOSING = line("OK closing");
+
+    //Returned for PROTO BINARY; the connection speaks BinaryProtocol after this line
+    public static final byte[] SWITCH_BINARY = line("OK binary");
+
+    //Most items in one batch command (-Dfs.server.maxBatch, default 1024)
+    public static final int MAX_BATCH = Integer.getInteger("fs.server.maxBatch", 1024);
+
+    private final FileSystemManager fs;
+    private final ServerMetrics metrics;
+
+    public CommandProcessor(FileSystemManager fs) {
+        this.fs = fs;
+        this.metrics = new ServerMetrics(fs);
+    }
+
+    public FileSystemManager getFileSystem() {
+        return fs;
+    }
+
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    public byte[] execute(String line) {
+        String[] parts = line.trim().split(" ", 3);
+        String cmd = parts[0].toUpperCase();
+
+        //STATS is left out of the figures it reports
+        if (cmd.equals("STATS")) return line("OK " + metrics.format());
+
+        long started = metrics.start();
+        byte[] reply = run(cmd, parts, line);
+        metrics.record(cmd, started, line.length() + 1, reply.length, isOk(reply));
+        return reply;
+    }
+
+    private byte[] run(String cmd, String[] parts, String line) {
+        try {
+            switch (cmd) {
+                case "CREATE":
+                    if (parts.length < 2) return line("ERROR: malformed command");
+                    fs.createFile(parts[1]);
+                    return line("OK");
+
+                case "READ":
+                    if (parts.length < 2) return line("ERROR: malformed command");
+                    CachedFile file = fs.readCached(parts[1]);
+                    return file.encoded(CommandProcessor::encodeReadResponse);
+
+                case "WRITE":
+                    if (parts.length < 3) return line("ERROR: malformed command");
+                    fs.writeFile(parts[1], parts[2].getBytes());
+                    return line("OK");
+
+                case "READAT": {
+                    String[] args = parts.length < 3 ? null : parts[2].split(" ");
+                    if (args == null || args.length != 2) return line("ERROR: malformed command");
+                    int length = Integer.parseInt(args[1]);
+                    if (length > BinaryProtocol.MAX_CHUNK) return line("ERROR: chunk larger than " + BinaryProtocol.MAX_CHUNK);
+                    byte[] data = fs.read(parts[1], Long.parseLong(args[0]), length);
+                    return encodeReadResponse(data);
+                }
+
+                case "WRITEAT": {
+                    String[] args = parts.length < 3 ? null : parts[2].split(" ", 2);
+                    if (args == null || args.length != 2) return line("ERROR: malformed command");
+                    fs.write(parts[1], Long.parseLong(args[0]), args[1].getBytes());
+                    return line("OK");
+                }
+
+                case "APPEND":
+                    if (parts.length < 3) return line("ERROR: malformed command");
+                    return line("OK " + fs.append(parts[1], parts[2].getBytes()));
+
+                case "TRUNCATE":
+                    if (parts.length < 3) return line("ERROR: malformed command");
+                    fs.truncate(parts[1], Long.parseLong(parts[2].trim()));
+                    return line("OK");
+
+                case "DELETE":
+                    if (parts.length < 2) return line("ERROR: malformed command");
+                    fs.deleteFile(parts[1]);
+                    return line("OK");
+
+                case "LIST":
+                    return line("OK " + String.join(",", fs.listFiles()));
+
+                case "MCREATE":
+                case "MREAD": {
+                    String[] names = line.trim().substring(cmd.length()).trim().split(" +");
+                    if (names[0].isEmpty()) return line("ERROR: malformed command");
+                    if (names.length > MAX_BATCH) return line("ERROR: batch larger than " + MAX_BATCH);
+                    return cmd.equals("MREAD") ? batchResponse(fs.readFiles(names), true)
+                            : batchResponse(fs.createFiles(names), false);
+                }
+
+                case "MWRITE": {
+                    //Taken from the untrimmed line: trailing spaces can be part of the last item's content
+                    String args = line.stripLeading().substring(cmd.length());
+                    List<String> names = new ArrayList<>();
+                    List<byte[]> contents = new ArrayList<>();
+                    if (!args.startsWith(" ") || !parseWrites(args.substring(1), names, contents))
+                        return line("ERROR: malformed command");
+                    if (names.size() > MAX_BATCH) return line("ERROR: batch larger than " + MAX_BATCH);
+                    return batchResponse(fs.writeFiles(names.toArray(new String[0]), contents.toArray(new byte[0][])), false);
+                }
+
+                case "QUIT":
+                    return CLOSING;
+
+                case "PROTO":
+                    if (parts.length < 2) return line("ERROR: malformed command");
+                    if (parts[1].equalsIgnoreCase("BINARY")) return SWITCH_BINARY;
+                    if (parts[1].equalsIgnoreCase("TEXT")) return line("OK text");
+                    return line("ERROR: unknown protocol " + parts[1]);
+
+                default:
+                    return line("ERROR: unknown command");
+            }
+        } catch (NumberFormatException e) {
+            return line("ERROR: malformed command");
+        } catch (Exception e) {
+            return line(e.getMessage());
+        }
+    }
+
+    //name length content [name length content ...]; length counts the characters of content, which may contain spaces
+    private static boolean parseWrites(String args, List<String> names, List<byte[]> contents) {
+        int pos = 0;
+        while (pos < args.length()) {
+            int nameEnd = args.indexOf(' ', pos);
+            if (nameEnd <= pos) return false;
+            int lengthEnd = args.indexOf(' ', nameEnd + 1);
+            if (lengthEnd < 0) lengthEnd = args.length();
+            int length = Integer.parseInt(args.substring(nameEnd + 1, lengthEnd));
+            int start = Math.min(lengthEnd + 1, args.length());
+            if (length < 0 || start + length > args.length()) return false;
+            if (start + length < args.length() && args.charAt(start + length) != ' ') return false;
+
+            names.add(args.substring(pos, nameEnd));
+            contents.add(args.substring(start, start + length).getBytes());
+            pos = start + length + 1;
+        }
+        return !names.isEmpty();
+    }
+
+    //"OK n", then per item the content line (reads) or "OK", or the item's error
+    private static byte[] batchResponse(BatchResult[] results, boolean withData) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(line("OK " + results.length));
+        for (BatchResult r : results)
+            out.writeBytes(!r.isOk() ? line(r.getError()) : withData ? encodeReadResponse(r.getData()) : line("OK"));
+        return out.toByteArray();
+    }
+
+    private static boolean isOk(byte[] reply) {
+        return reply.length >= 2 && reply[0] == 'O' && reply[1] == 'K';
+    }
+
+    public static byte[] line(String s) {
+        byte[] text = s.getBytes();
+        byte[] out = new byte[text.length + NEWLINE.length];
+        System.arraycopy(text, 0, out, 0, text.length);
+        System.arraycopy(NEWLINE, 0, out, text.length, NEWLINE.length);
+        return out;
+    }
+
+    //"OK <content>" line for READ, built once per cached file version
+    private static byte[] encodeReadResponse(byte[] data) {
+        byte[] out = new byte[OK_PREFIX.length + data.length + NEWLINE.length];
+        System.arraycopy(OK_PREFIX, 0, out, 0, OK_PREFIX.length);
+        System.arraycopy(data, 0, out, OK_PREFIX.length, data.length);
+        System.arraycopy(NEWLINE, 0, out, OK_PREFIX.length + data.length, NEWLINE.length);
+        return out;
+    }
+}
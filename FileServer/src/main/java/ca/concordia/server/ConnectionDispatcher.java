@@ -0,0 +1,106 @@
+package ca.concordia.server;
+
+//Runs client connections on the configured ExecutionMode with admission control
+//A connection is refused with "ERROR: server busy" when the connection limit is reached or
+//the pool queue is full, instead of piling up threads. Tracks open connections for metrics and shutdown
+
+import java.io.*;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ConnectionDispatcher {
+
+    private static final byte[] BUSY = ("ERROR: server busy" + System.lineSeparator()).getBytes();
+
+    private final ExecutionMode mode;
+    private final ExecutorService executor;
+    private final int maxConnections;                       //0 = no limit
+
+    private final Set<Socket> open = ConcurrentHashMap.newKeySet();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public ConnectionDispatcher(ExecutionMode mode, int threads, int queue, int maxConnections) {
+        this.mode = mode;
+        this.executor = mode.newExecutor(threads, queue);
+        this.maxConnections = maxConnections;
+    }
+
+    //-Dfs.server.mode (see ExecutionMode), -Dfs.server.threads (pool workers, default 256),
+    //-Dfs.server.queue (pool backlog, default 4096), -Dfs.server.maxConnections (default 0 = unlimited)
+    public static ConnectionDispatcher fromSystemProperties() {
+        return new ConnectionDispatcher(ExecutionMode.fromSystemProperty(),
+                Integer.getInteger("fs.server.threads", 256),
+                Integer.getInteger("fs.server.queue", 4096),
+                Integer.getInteger("fs.server.maxConnections", 0));
+    }
+
+    public ExecutionMode getMode() { return mode; }
+
+    //Connections accepted and not yet closed, running or queued
+    public int openConnections() { return open.size(); }
+
+    //Connections being served right now
+    public int activeConnections() { return open.size() - queueDepth(); }
+
+    //Connections waiting for a pool worker
+    public int queueDepth() {
+        return executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executor).getQueue().size() : 0;
+    }
+
+    public long accepted() { return accepted.sum(); }
+    public long rejected() { return rejected.sum(); }
+
+    //Hands the connection to a worker; returns false (and closes it) if it was refused
+    public boolean dispatch(Socket sock, Runnable handler) {
+        if (maxConnections > 0 && open.size() >= maxConnections) {
+            refuse(sock);
+            return false;
+        }
+        open.add(sock);
+        try {
+            executor.execute(() -> {
+                try {
+                    handler.run();
+                } finally {
+                    open.remove(sock);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            open.remove(sock);
+            refuse(sock);
+            return false;
+        }
+        accepted.increment();
+        return true;
+    }
+
+    private void refuse(Socket sock) {
+        rejected.increment();
+        try {
+            sock.getOutputStream().write(BUSY);
+        } catch (IOException ignored) {
+        } finally {
+            try { sock.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    //Stops taking connections and lets in-flight ones finish; clients still connected after
+    //graceMillis are disconnected. Returns true if every handler finished
+    public boolean shutdown(long graceMillis) throws InterruptedException {
+        executor.shutdown();
+        if (executor.awaitTermination(graceMillis, TimeUnit.MILLISECONDS))
+            return true;
+
+        //Idle clients block in readLine; closing their sockets makes the handlers return
+        for (Socket s : open) {
+            try { s.close(); } catch (IOException ignored) {}
+        }
+        executor.shutdownNow();    //connections still queued are dropped, their sockets are already closed
+        boolean done = executor.awaitTermination(graceMillis, TimeUnit.MILLISECONDS);
+        open.clear();
+        return done;
+    }
+}
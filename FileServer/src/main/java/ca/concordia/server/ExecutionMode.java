@@ -0,0 +1,37 @@
+package ca.concordia.server;
+
+import java.util.concurrent.*;
+
+//How accepted connections are run
+public enum ExecutionMode {
+    THREAD,   //one platform thread per connection (threads are reused, never bounded)
+    POOL,     //fixed worker pool with a bounded queue of waiting connections
+    VIRTUAL;  //one virtual thread per connection, needs JDK 21+
+
+    //Selected with -Dfs.server.mode=thread|pool|virtual, THREAD when unset: a pool only serves as many
+    //connections at once as it has workers and queues the rest, so it has to be chosen deliberately
+    public static ExecutionMode fromSystemProperty() {
+        return valueOf(System.getProperty("fs.server.mode", "thread").toUpperCase());
+    }
+
+    ExecutorService newExecutor(int threads, int queue) {
+        switch (this) {
+            case POOL:
+                return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(queue), new ThreadPoolExecutor.AbortPolicy());
+            case VIRTUAL:
+                return virtualExecutor();
+            default:
+                return Executors.newCachedThreadPool();
+        }
+    }
+
+    //Executors.newVirtualThreadPerTaskExecutor is looked up so the server still builds for older JDKs
+    private static ExecutorService virtualExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("ERROR: virtual threads are not available on this JVM");
+        }
+    }
+}
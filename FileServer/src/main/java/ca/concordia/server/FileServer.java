@@ -3,99 +3,307 @@ package ca.concordia.server;
 import ca.concordia.filesystem.FileSystemManager;
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.management.ObjectName;
 
 public class FileServer {
 
     private final FileSystemManager fs;
     private final int port;
+    private final CommandProcessor processor;
+    private final ConnectionDispatcher dispatcher;     //blocking front end
+    private final NioServer nio;                       //selector front end, null unless -Dfs.server.frontend=nio
+
+    //Runs pipelined binary requests for the blocking front end; threads start on first use
+    private final ExecutorService requests = Executors.newFixedThreadPool(
+            Integer.getInteger("fs.server.pipelineThreads", 2 * Runtime.getRuntime().availableProcessors()),
+            r -> {
+                Thread t = new Thread(r, "fs-request");
+                t.setDaemon(true);
+                return t;
+            });
+
+    private volatile ServerSocketChannel server;
+    private volatile boolean stopped;
+    private volatile ObjectName mbean;
 
     public FileServer(int port, String fsName, int totalSize) throws Exception {
+        this(port, new FileSystemManager(fsName, totalSize));
+    }
+
+    //Formats (or reopens) a volume with a configurable block size and file table capacity
+    public FileServer(int port, String fsName, long totalSize, int blockSize, int maxFiles) throws Exception {
+        this(port, new FileSystemManager(fsName, totalSize, blockSize, maxFiles));
+    }
+
+    //Front end picked with -Dfs.server.frontend=blocking|nio (blocking when unset)
+    public FileServer(int port, FileSystemManager fs) throws IOException {
+        this.port = port;
+        this.fs = fs;
+        this.processor = new CommandProcessor(fs);
+        if ("nio".equalsIgnoreCase(System.getProperty("fs.server.frontend", "blocking"))) {
+            this.dispatcher = null;
+            this.nio = NioServer.fromSystemProperties(port, processor);
+        } else {
+            this.dispatcher = ConnectionDispatcher.fromSystemProperties();
+            this.nio = null;
+        }
+    }
+
+    public FileServer(int port, FileSystemManager fs, ConnectionDispatcher dispatcher) {
+        this.port = port;
+        this.fs = fs;
+        this.processor = new CommandProcessor(fs);
+        this.dispatcher = dispatcher;
+        this.nio = null;
+    }
+
+    public FileServer(int port, FileSystemManager fs, NioServer nio) {
         this.port = port;
-        this.fs = new FileSystemManager(fsName, totalSize);
+        this.fs = fs;
+        this.processor = nio.getProcessor();
+        this.dispatcher = null;
+        this.nio = nio;
+    }
+
+    public NioServer getNioServer() {
+        return nio;
     }
-    @SuppressWarnings("resource")
+
+    public ConnectionDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    public ServerMetrics getMetrics() {
+        return processor.getMetrics();
+    }
+
+    //Accepts connections until stop() is called
     public void start() throws Exception {
-        ServerSocket server = new ServerSocket(port);
-        System.out.println("Server listening on " + port);
+        ServerMetrics metrics = processor.getMetrics();
+        metrics.setConnections(nio != null ? nio::openConnections : dispatcher::openConnections);
+        mbean = metrics.register(port);
 
-        while (true) {
-            Socket client = server.accept();
-            new Thread(new ClientHandler(client, fs)).start();
+        if (nio != null) {
+            System.out.println("Server listening on " + port + " (nio)");
+            nio.start();
+            return;
+        }
+        //Accepted through a channel so binary READs can transferTo the client's SocketChannel
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        System.out.println("Server listening on " + port + " (" + dispatcher.getMode().name().toLowerCase() + ")");
+
+        while (!stopped) {
+            Socket client;
+            try {
+                client = server.accept().socket();
+            } catch (ClosedChannelException e) {
+                if (stopped) break;
+                throw e;
+            }
+            dispatcher.dispatch(client, new ClientHandler(client, processor, requests));
         }
     }
 
+    //Graceful shutdown: stop accepting, give connected clients graceMillis to finish, then flush the volume
+    public void stop(long graceMillis) throws Exception {
+        stopped = true;
+        if (mbean != null) ServerMetrics.unregister(mbean);
+        if (nio != null) {
+            nio.stop(graceMillis);
+        } else {
+            if (server != null) server.close();
+            dispatcher.shutdown(graceMillis);
+            requests.shutdown();
+        }
+        fs.close();
+    }
+
     private static class ClientHandler implements Runnable {
+        //Largest binary frame accepted, header included. Read from -Dfs.server.maxLine (default 16 MB), the
+        //nio front end's request limit, so both front ends refuse the same frames
+        private static final int MAX_FRAME = Integer.getInteger("fs.server.maxLine", 16 * 1024 * 1024);
+
         private final Socket sock;
-        private final FileSystemManager fs;
+        private final CommandProcessor processor;
+        private final Executor requests;
 
-        ClientHandler(Socket s, FileSystemManager fs) {
+        ClientHandler(Socket s, CommandProcessor processor, Executor requests) {
             this.sock = s;
-            this.fs = fs;
+            this.processor = processor;
+            this.requests = requests;
         }
 
         public void run() {
-            try (BufferedReader in = new BufferedReader(new InputStreamReader(sock.getInputStream()));
-                 PrintWriter out = new PrintWriter(sock.getOutputStream(), true)) {
+            //One buffered stream for both protocols, so bytes read ahead of PROTO BINARY are not lost
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(sock.getInputStream()));
+                 OutputStream out = new BufferedOutputStream(sock.getOutputStream())) {
 
                 String line;
-                while ((line = in.readLine()) != null) {
+                while ((line = readLine(in)) != null) {
+                    byte[] reply = processor.execute(line);
+                    out.write(reply);
+                    out.flush();
+                    if (reply == CommandProcessor.CLOSING) return;
+                    if (reply == CommandProcessor.SWITCH_BINARY) {
+                        serveBinary(in, out);
+                        return;
+                    }
+                }
 
-                    String[] parts = line.trim().split(" ", 3);
-                    if (parts.length == 0) {
-                        out.println("ERROR: malformed command");
-                        continue;
+            } catch (IOException e) {
+                processor.getMetrics().connectionError();
+            } finally {
+                try { sock.close(); } catch (Exception ignored) {}
+            }
+        }
+
+        //Frames are read as fast as they arrive and run through a RequestSequencer; answers are queued
+        //by whichever request finishes, tagged with their request id, and written by the ResponseWriter
+        private void serveBinary(DataInputStream in, OutputStream out) throws IOException {
+            BinaryProtocol protocol = new BinaryProtocol(processor.getFileSystem(), processor.getMetrics());
+            RequestSequencer sequencer = new RequestSequencer(requests);
+            ResponseWriter writer = new ResponseWriter(out, sock.getChannel());
+            try {
+                while (true) {
+                    byte opcode;
+                    try {
+                        opcode = in.readByte();
+                    } catch (EOFException e) {
+                        sequencer.awaitIdle();
+                        return;
                     }
+                    int id = in.readInt();
+                    int nameLen = in.readUnsignedShort();
+                    int length = in.readInt();
+                    //Checked before anything is allocated: the header alone must not size a buffer
+                    if (length < 0 || (long) BinaryProtocol.REQUEST_HEADER + nameLen + length > MAX_FRAME) {
+                        sequencer.awaitIdle();
+                        writer.send(BinaryProtocol.error(id, BinaryProtocol.TOO_LONG_ERROR));
+                        return;
+                    }
+                    byte[] nameBytes = new byte[nameLen];
+                    byte[] payload = new byte[length];
+                    in.readFully(nameBytes);
+                    in.readFully(payload);
+                    String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+                    if (opcode == BinaryProtocol.QUIT) {
+                        sequencer.awaitIdle();
+                        writer.send(protocol.execute(opcode, id, name, payload));
+                        return;
+                    }
+                    sequencer.awaitBelow(RequestSequencer.DEPTH);
+                    sequencer.submit(opcode == BinaryProtocol.LIST ? null : name, id,
+                            () -> protocol.execute(opcode, id, name, payload), writer::send);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                //Requests still running answer into the writer, so it is closed only after them
+                try {
+                    sequencer.awaitIdle();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                writer.close();
+            }
+        }
+
+        //Text line up to \n (a trailing \r is dropped), null at end of stream
+        private static String readLine(InputStream in) throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+            int c;
+            while ((c = in.read()) != '\n') {
+                if (c < 0) return line.size() == 0 ? null : line.toString();
+                line.write(c);
+            }
+            byte[] b = line.toByteArray();
+            int len = b.length > 0 && b[b.length - 1] == '\r' ? b.length - 1 : b.length;
+            return new String(b, 0, len);
+        }
+    }
+
+    //Writes one connection's responses on a thread of its own: request threads on the shared pool only
+    //queue them, so a slow reader never holds a pool thread in a blocking write. Each wake-up drains the
+    //queue and flushes once
+    private static class ResponseWriter {
+        private static final BinaryProtocol.Reply END = new BinaryProtocol.Reply(new ByteBuffer[0], null);
+
+        private final OutputStream out;
+        private final WritableByteChannel channel;     //same socket, used for streamed READs
+        private final LinkedBlockingQueue<BinaryProtocol.Reply> pending = new LinkedBlockingQueue<>();
+        private final Thread thread;
+        private volatile IOException failed;
+
+        ResponseWriter(OutputStream out, WritableByteChannel channel) {
+            this.out = out;
+            this.channel = channel;
+            this.thread = new Thread(this::run, "fs-writer");
+            thread.setDaemon(true);
+            thread.start();
+        }
 
-                    String cmd = parts[0].toUpperCase();
+        void send(BinaryProtocol.Reply reply) {
+            pending.add(reply);
+        }
 
+        private void run() {
+            try {
+                BinaryProtocol.Reply r;
+                while ((r = pending.take()) != END) {
                     try {
-                        switch (cmd) {
-                            case "CREATE":
-                                if (parts.length < 2) { out.println("ERROR: malformed command"); break; }
-                                fs.createFile(parts[1]);
-                                out.println("OK");
-                                break;
-                                //TODO Implement other commands READ, WRITE, DELETE, LIST
-
-                            case "READ":
-                                if (parts.length < 2) { out.println("ERROR: malformed command"); break; }
-                                byte[] data = fs.readFile(parts[1]);
-                                out.println("OK " + new String(data));
-                                break;
-
-                            case "WRITE":
-                                if (parts.length < 3) { out.println("ERROR: malformed command"); break; }
-                                fs.writeFile(parts[1], parts[2].getBytes());
-                                out.println("OK");
-                                break;
-
-                            case "DELETE":
-                                if (parts.length < 2) { out.println("ERROR: malformed command"); break; }
-                                fs.deleteFile(parts[1]);
-                                out.println("OK");
-                                break;
-
-                            case "LIST":
-                                String[] names = fs.listFiles();
-                                out.println("OK " + String.join(",", names));
-                                break;
-
-                            case "QUIT":
-                                out.println("OK closing");
-                                return;
-
-                            default:
-                                out.println("ERROR: unknown command");
-                        }
-                    } catch (Exception e) {
-                        out.println(e.getMessage());
+                        do {
+                            if (failed == null) write(r);
+                            else closeFile(r);
+                        } while ((r = pending.poll()) != null && r != END);
+                        if (failed == null) out.flush();
+                    } catch (IOException e) {
+                        failed = e;
                     }
+                    if (r == END) return;
                 }
+            } catch (InterruptedException e) {
+                //Only on shutdown; replies still queued are dropped with their files closed
+                BinaryProtocol.Reply r;
+                while ((r = pending.poll()) != null) closeFile(r);
+            }
+        }
 
-            } catch (IOException ignored) {
+        private void write(BinaryProtocol.Reply r) throws IOException {
+            try {
+                for (ByteBuffer b : r.buffers)
+                    out.write(b.array(), b.arrayOffset() + b.position(), b.remaining());
+                if (r.file != null) {
+                    out.flush();
+                    for (long sent = 0; sent < r.file.size(); )
+                        sent += r.file.transferTo(sent, r.file.size() - sent, channel);
+                }
             } finally {
-                try { sock.close(); } catch (Exception ignored) {}
+                closeFile(r);
+            }
+        }
+
+        private static void closeFile(BinaryProtocol.Reply r) {
+            if (r.file == null) return;
+            try { r.file.close(); } catch (IOException ignored) {}
+        }
+
+        //Writes out everything queued, stops the thread and rethrows a write failure
+        void close() throws IOException {
+            pending.add(END);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                thread.interrupt();
+                Thread.currentThread().interrupt();
             }
+            if (failed != null) throw failed;
         }
     }
 }
@@ -0,0 +1,445 @@
+package ca.concordia.server;
+
+//Non-blocking front end: one acceptor, N selector event loops and a worker pool for filesystem calls
+//Each connection owns a direct input buffer that is scanned for complete lines as bytes arrive, so an
+//idle client costs a buffer and a selection key rather than a thread. Text commands from one connection
+//run one at a time; binary requests are pipelined (see RequestSequencer). The event loop only moves bytes
+//and flushes each connection once per pass, workers do the file I/O
+
+import ca.concordia.filesystem.FileReadHandle;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class NioServer {
+
+    private static final byte[] BUSY = CommandProcessor.line("ERROR: server busy");
+    private static final byte[] TOO_LONG = CommandProcessor.line(BinaryProtocol.TOO_LONG_ERROR);
+
+    private final int port;
+    private final CommandProcessor processor;
+    private final EventLoop[] loops;
+    private final ThreadPoolExecutor workers;
+    private final int bufferSize;
+    private final int maxLine;
+
+    private final AtomicInteger open = new AtomicInteger();
+    private volatile ServerSocketChannel server;
+    private volatile boolean stopped;
+
+    public NioServer(int port, CommandProcessor processor, int loops, int threads, int queue, int bufferSize, int maxLine) throws IOException {
+        this.port = port;
+        this.processor = processor;
+        this.bufferSize = bufferSize;
+        this.maxLine = maxLine;
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queue));
+        this.loops = new EventLoop[loops];
+        for (int i = 0; i < loops; i++) this.loops[i] = new EventLoop();
+    }
+
+    //-Dfs.server.loops (event loops, default one per core), -Dfs.server.threads / -Dfs.server.queue (worker pool),
+    //-Dfs.server.bufferSize (initial per-connection input buffer, default 4 KB), -Dfs.server.maxLine (default 16 MB)
+    public static NioServer fromSystemProperties(int port, CommandProcessor processor) throws IOException {
+        return new NioServer(port, processor,
+                Integer.getInteger("fs.server.loops", Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger("fs.server.threads", 64),
+                Integer.getInteger("fs.server.queue", 4096),
+                Integer.getInteger("fs.server.bufferSize", 4096),
+                Integer.getInteger("fs.server.maxLine", 16 * 1024 * 1024));
+    }
+
+    public int openConnections() { return open.get(); }
+
+    CommandProcessor getProcessor() { return processor; }
+
+    //Commands waiting for a worker
+    public int queueDepth() { return workers.getQueue().size(); }
+
+    public int activeWorkers() { return workers.getActiveCount(); }
+
+    //Accepts connections until stop() is called, spreading them round-robin over the event loops
+    public void start() throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        for (int i = 0; i < loops.length; i++) {
+            Thread t = new Thread(loops[i], "nio-loop-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        int next = 0;
+        while (!stopped) {
+            SocketChannel ch;
+            try {
+                ch = server.accept();
+            } catch (ClosedChannelException e) {
+                if (stopped) break;
+                throw e;
+            }
+            ch.configureBlocking(false);
+            ch.socket().setTcpNoDelay(true);
+            loops[next++ % loops.length].register(ch);
+        }
+    }
+
+    //Stops accepting, lets queued and running commands finish, then closes every connection
+    public void stop(long graceMillis) throws Exception {
+        stopped = true;
+        if (server != null) server.close();
+        workers.shutdown();
+        workers.awaitTermination(graceMillis, TimeUnit.MILLISECONDS);
+        for (EventLoop loop : loops) loop.shutdown();
+    }
+
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final ArrayDeque<Connection> toFlush = new ArrayDeque<>();
+        private volatile boolean closing;
+
+        EventLoop() throws IOException {
+            selector = Selector.open();
+        }
+
+        void register(SocketChannel ch) {
+            execute(() -> {
+                Connection c = new Connection(ch, this);
+                try {
+                    c.key = ch.register(selector, SelectionKey.OP_READ, c);
+                    open.incrementAndGet();
+                } catch (IOException e) {
+                    try { ch.close(); } catch (IOException ignored) {}
+                }
+            });
+        }
+
+        //Runs r on the loop thread
+        void execute(Runnable r) {
+            tasks.add(r);
+            selector.wakeup();
+        }
+
+        void shutdown() {
+            closing = true;
+            selector.wakeup();
+        }
+
+        public void run() {
+            try {
+                while (!closing) {
+                    selector.select();
+                    runTasks();
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        Connection c = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isWritable()) c.flush();
+                            if (key.isValid() && key.isReadable()) c.read();
+                        } catch (IOException | CancelledKeyException e) {
+                            processor.getMetrics().connectionError();
+                            c.close();
+                        }
+                    }
+                    flushPending();
+                }
+                //Answers already handed back by workers still go out before the connections close
+                runTasks();
+                flushPending();
+            } catch (IOException ignored) {
+            } finally {
+                for (SelectionKey key : new ArrayList<>(selector.keys())) ((Connection) key.attachment()).close();
+                try { selector.close(); } catch (IOException ignored) {}
+            }
+        }
+
+        private void runTasks() {
+            Runnable r;
+            while ((r = tasks.poll()) != null) r.run();
+        }
+
+        //Responses queued during one pass of the loop go out together, one gathering write per connection
+        void scheduleFlush(Connection c) {
+            if (c.flushScheduled) return;
+            c.flushScheduled = true;
+            toFlush.add(c);
+        }
+
+        private void flushPending() {
+            Connection c;
+            while ((c = toFlush.poll()) != null) {
+                c.flushScheduled = false;
+                try {
+                    c.flush();
+                } catch (IOException | CancelledKeyException e) {
+                    processor.getMetrics().connectionError();
+                    c.close();
+                }
+            }
+        }
+    }
+
+    private final class Connection {
+        final SocketChannel ch;
+        final EventLoop loop;
+        SelectionKey key;
+        final ByteBuffer small = ByteBuffer.allocateDirect(bufferSize);
+        ByteBuffer in = small;                                   //filled from position 0, bytes up to position are unparsed
+        int scanned;                                             //bytes already searched for a newline
+        final ArrayDeque<Object> out = new ArrayDeque<>();       //ByteBuffers and Transfers, in send order
+        boolean busy;                                            //a text command is with a worker
+        BinaryProtocol binary;                                   //set after PROTO BINARY
+        RequestSequencer sequencer;
+        int inFlight;                                            //binary requests not answered yet
+        int quitId = -1;                                         //QUIT waiting for inFlight to drain
+        boolean flushScheduled;
+        boolean closeAfterFlush;
+        boolean closed;
+
+        Connection(SocketChannel ch, EventLoop loop) {
+            this.ch = ch;
+            this.loop = loop;
+        }
+
+        void read() throws IOException {
+            //A read into a heap buffer goes through a JDK temporary direct buffer as large as the space asked
+            //for, so a grown buffer is filled at most bufferSize at a time
+            int limit = in.limit();
+            if (in != small) in.limit(Math.min(limit, in.position() + bufferSize));
+            int n = ch.read(in);
+            in.limit(limit);
+            if (n < 0) {
+                close();
+                return;
+            }
+            parse();
+        }
+
+        //Hands the next complete request to a worker
+        void parse() {
+            if (closeAfterFlush || closed) return;
+            if (binary == null) {
+                if (!busy) parseLine();
+            } else {
+                while (quitId < 0 && inFlight < RequestSequencer.DEPTH && parseFrame()) ;
+            }
+            updateInterest();
+        }
+
+        private void parseLine() {
+            int end = in.position();
+            int nl = -1;
+            for (int i = scanned; i < end; i++)
+                if (in.get(i) == '\n') { nl = i; break; }
+
+            if (nl < 0) {
+                scanned = end;
+                if (!in.hasRemaining()) grow(in.capacity() + 1);
+                return;
+            }
+
+            int len = nl > 0 && in.get(nl - 1) == '\r' ? nl - 1 : nl;
+            byte[] bytes = new byte[len];
+            in.get(0, bytes);
+            consume(nl + 1);
+
+            String line = new String(bytes);
+            dispatch(() -> {
+                byte[] reply = processor.execute(line);
+                loop.execute(() -> complete(reply));
+            });
+        }
+
+        //Binary frames are only parsed once the whole frame is buffered, then copied out in one go;
+        //returns false when no complete frame is buffered
+        private boolean parseFrame() {
+            int have = in.position();
+            if (have < BinaryProtocol.REQUEST_HEADER) return false;
+
+            byte opcode = in.get(0);
+            int id = in.getInt(1);
+            int nameLen = in.getShort(5) & 0xFFFF;
+            int payloadLen = in.getInt(7);
+            long total = (long) BinaryProtocol.REQUEST_HEADER + nameLen + payloadLen;
+            if (payloadLen < 0 || total > maxLine) {
+                closeAfterFlush = true;
+                send(BinaryProtocol.error(id, BinaryProtocol.TOO_LONG_ERROR));
+                return false;
+            }
+            if (have < total) {
+                grow((int) total);
+                return false;
+            }
+
+            byte[] name = new byte[nameLen];
+            byte[] payload = new byte[payloadLen];
+            in.get(BinaryProtocol.REQUEST_HEADER, name);
+            in.get(BinaryProtocol.REQUEST_HEADER + nameLen, payload);
+            consume((int) total);
+
+            String file = new String(name, StandardCharsets.UTF_8);
+            if (opcode == BinaryProtocol.QUIT) {
+                quitId = id;
+                if (inFlight == 0) quit();
+                return false;
+            }
+
+            //Requests on different files run concurrently and are answered as they finish
+            inFlight++;
+            BinaryProtocol protocol = binary;
+            sequencer.submit(opcode == BinaryProtocol.LIST ? null : file, id,
+                    () -> protocol.execute(opcode, id, file, payload),
+                    reply -> loop.execute(() -> completeFrame(reply)));
+            return true;
+        }
+
+        void completeFrame(BinaryProtocol.Reply reply) {
+            if (closed) {
+                if (reply.file != null) new Transfer(reply.file).close();
+                return;
+            }
+            inFlight--;
+            send(reply);
+            if (quitId >= 0 && inFlight == 0) quit();
+            else parse();
+        }
+
+        private void quit() {
+            closeAfterFlush = true;
+            send(BinaryProtocol.response(BinaryProtocol.STATUS_OK, quitId, new byte[0]));
+        }
+
+        private void dispatch(Runnable task) {
+            busy = true;
+            try {
+                workers.execute(task);
+            } catch (RejectedExecutionException e) {
+                busy = false;
+                send(BUSY);
+            }
+        }
+
+        //Makes room for a request of needed bytes, growing the buffer for long WRITE payloads. Large buffers live
+        //on the heap: they come and go with single requests and must not pile up as direct memory
+        private void grow(int needed) {
+            if (needed <= in.capacity()) return;
+            if (in.capacity() >= maxLine) {
+                closeAfterFlush = true;
+                send(TOO_LONG);
+                return;
+            }
+            int cap = in.capacity();
+            while (cap < needed) cap *= 2;
+            ByteBuffer bigger = ByteBuffer.allocate(Math.min(maxLine, cap));
+            in.flip();
+            bigger.put(in);
+            in = bigger;
+        }
+
+        //Drops n parsed bytes, going back to the connection's direct buffer once a large request is gone
+        private void consume(int n) {
+            in.flip().position(n);
+            in.compact();
+            scanned = 0;
+            if (in != small && in.position() < bufferSize) {
+                small.clear();
+                in.flip();
+                small.put(in);
+                in = small;
+            }
+        }
+
+        //Loop thread: queue the worker's answer, then look for the next buffered request
+        void complete(byte[] reply) {
+            if (closed) return;
+            busy = false;
+            if (reply == CommandProcessor.CLOSING) closeAfterFlush = true;
+            if (reply == CommandProcessor.SWITCH_BINARY) {
+                binary = new BinaryProtocol(processor.getFileSystem(), processor.getMetrics());
+                sequencer = new RequestSequencer(workers);
+            }
+            send(reply);
+            parse();
+        }
+
+        void send(byte[] text) {
+            out.add(ByteBuffer.wrap(text));
+            loop.scheduleFlush(this);
+        }
+
+        void send(BinaryProtocol.Reply reply) {
+            Collections.addAll(out, reply.buffers);
+            if (reply.file != null) out.add(new Transfer(reply.file));
+            loop.scheduleFlush(this);
+        }
+
+        //Gathering write of the queued buffers; a streamed READ is sent with transferTo when it reaches the head
+        void flush() throws IOException {
+            if (closed) return;
+            while (!out.isEmpty()) {
+                Object head = out.peek();
+                if (head instanceof Transfer) {
+                    Transfer t = (Transfer) head;
+                    t.sent += t.file.transferTo(t.sent, t.file.size() - t.sent, ch);
+                    if (t.sent < t.file.size()) break;
+                    t.close();
+                    out.poll();
+                    continue;
+                }
+
+                List<ByteBuffer> batch = new ArrayList<>();
+                for (Object o : out) {
+                    if (!(o instanceof ByteBuffer)) break;
+                    batch.add((ByteBuffer) o);
+                }
+                ch.write(batch.toArray(new ByteBuffer[0]));
+                while (!out.isEmpty() && out.peek() instanceof ByteBuffer && !((ByteBuffer) out.peek()).hasRemaining())
+                    out.poll();
+                if (!out.isEmpty() && out.peek() instanceof ByteBuffer) break;
+            }
+            if (out.isEmpty() && closeAfterFlush) close();
+            else updateInterest();
+        }
+
+        //Reads pause once the input buffer is full and no more requests can be started
+        void updateInterest() {
+            if (closed || !key.isValid()) return;
+            boolean blocked = binary == null ? busy : inFlight >= RequestSequencer.DEPTH || quitId >= 0;
+            int ops = 0;
+            if (!out.isEmpty()) ops |= SelectionKey.OP_WRITE;
+            if (!closeAfterFlush && (!blocked || in.hasRemaining())) ops |= SelectionKey.OP_READ;
+            key.interestOps(ops);
+        }
+
+        void close() {
+            if (closed) return;
+            closed = true;
+            if (key != null) key.cancel();
+            try { ch.close(); } catch (IOException ignored) {}
+            for (Object o : out)
+                if (o instanceof Transfer) ((Transfer) o).close();
+            out.clear();
+            open.decrementAndGet();
+        }
+    }
+
+    //A streamed READ in a connection's output queue
+    private static final class Transfer {
+        final FileReadHandle file;
+        long sent;
+
+        Transfer(FileReadHandle file) {
+            this.file = file;
+        }
+
+        void close() {
+            try { file.close(); } catch (IOException ignored) {}
+        }
+    }
+}
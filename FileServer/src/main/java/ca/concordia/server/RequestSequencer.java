@@ -0,0 +1,85 @@
+package ca.concordia.server;
+
+//Schedules the pipelined binary requests of one connection
+//Requests naming the same file run in the order they arrived; requests on different files run
+//concurrently on the shared executor and may complete (and be answered) out of order
+
+import java.util.HashMap;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+class RequestSequencer {
+
+    //Requests one connection may have running or queued before the server stops reading from it
+    static final int DEPTH = Integer.getInteger("fs.server.pipeline", 64);
+
+    private final Executor executor;
+    private final HashMap<String, CompletableFuture<Void>> tails = new HashMap<>();
+    private int inFlight;
+
+    RequestSequencer(Executor executor) {
+        this.executor = executor;
+    }
+
+    //Runs task for request id after the earlier requests for name (null: no ordering) and hands its reply to
+    //answer. Every request is answered once: with a busy error if the executor refuses it, with an error
+    //reply if the task throws
+    synchronized void submit(String name, int id, Supplier<BinaryProtocol.Reply> task, Consumer<BinaryProtocol.Reply> answer) {
+        inFlight++;
+        Runnable run = () -> {
+            BinaryProtocol.Reply reply;
+            try {
+                reply = task.get();
+            } catch (Throwable e) {
+                reply = BinaryProtocol.error(id, "ERROR: request failed: " + e);
+            }
+            answer.accept(reply);
+        };
+        CompletableFuture<Void> prev = name == null ? null : tails.get(name);
+        CompletableFuture<Void> f;
+        try {
+            f = prev == null
+                    ? CompletableFuture.runAsync(run, executor)
+                    : prev.handle((v, e) -> null).thenRunAsync(run, executor);
+        } catch (RejectedExecutionException e) {
+            inFlight--;
+            answer.accept(busy(id));
+            return;
+        }
+        if (name != null) tails.put(name, f);
+        f.whenComplete((v, e) -> {
+            try {
+                //A chained request is refused only once its predecessor is done; anything else that fails
+                //here was thrown by answer itself, after the request ran
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                if (cause instanceof RejectedExecutionException) answer.accept(busy(id));
+            } finally {
+                finished(name, f);
+            }
+        });
+    }
+
+    private static BinaryProtocol.Reply busy(int id) {
+        return BinaryProtocol.error(id, "ERROR: server busy");
+    }
+
+    private synchronized void finished(String name, CompletableFuture<Void> f) {
+        if (name != null && tails.get(name) == f) tails.remove(name);
+        inFlight--;
+        notifyAll();
+    }
+
+    synchronized int inFlight() {
+        return inFlight;
+    }
+
+    //Blocks until fewer than limit requests are running or queued
+    synchronized void awaitBelow(int limit) throws InterruptedException {
+        while (inFlight >= limit) wait();
+    }
+
+    synchronized void awaitIdle() throws InterruptedException {
+        awaitBelow(1);
+    }
+}
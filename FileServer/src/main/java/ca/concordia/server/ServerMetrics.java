@@ -0,0 +1,154 @@
+package ca.concordia.server;
+
+//Per-command counters and latency histograms plus connection and volume gauges
+//Shared by the text and binary protocols of one server; read with the STATS command or over JMX
+//A command is charged for the device I/O and file lock time of the thread that ran it (see OpCost)
+
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.MeteredBlockDevice;
+import ca.concordia.filesystem.OpCost;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import javax.management.*;
+
+public class ServerMetrics implements ServerMetricsMXBean {
+
+    //Tracked separately; anything else (QUIT, PROTO, unknown commands) is counted as OTHER
+    private static final String[] COMMANDS = {"CREATE", "READ", "WRITE", "DELETE", "LIST",
+            "READAT", "WRITEAT", "APPEND", "TRUNCATE", "MCREATE", "MREAD", "MWRITE", "OTHER"};
+
+    static class Command {
+        final LongAdder count = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder bytesIn = new LongAdder();
+        final LongAdder bytesOut = new LongAdder();
+        final LongAdder diskReads = new LongAdder();
+        final LongAdder diskWrites = new LongAdder();
+        final LongAdder lockWaitNanos = new LongAdder();
+        final LongAdder lockHoldNanos = new LongAdder();
+        final LatencyHistogram micros = new LatencyHistogram();
+    }
+
+    private final FileSystemManager fs;
+    private final Map<String, Command> commands = new LinkedHashMap<>();   //fixed after construction
+    private final LongAdder connectionErrors = new LongAdder();
+    private volatile IntSupplier connections = () -> 0;
+
+    public ServerMetrics(FileSystemManager fs) {
+        this.fs = fs;
+        for (String c : COMMANDS) commands.put(c, new Command());
+    }
+
+    //Where the open connection count comes from; the front end sets it
+    public void setConnections(IntSupplier open) {
+        this.connections = open;
+    }
+
+    //Call on the thread that runs the command; pass the result to record()
+    public long start() {
+        OpCost.current().reset();
+        return System.nanoTime();
+    }
+
+    public void record(String command, long started, long bytesIn, long bytesOut, boolean ok) {
+        long micros = (System.nanoTime() - started) / 1000;
+        Command c = commands.getOrDefault(command, commands.get("OTHER"));
+        OpCost cost = OpCost.current();
+        c.count.increment();
+        if (!ok) c.errors.increment();
+        c.bytesIn.add(bytesIn);
+        c.bytesOut.add(bytesOut);
+        c.diskReads.add(cost.reads());
+        c.diskWrites.add(cost.writes());
+        c.lockWaitNanos.add(cost.lockWaitNanos());
+        c.lockHoldNanos.add(cost.lockHoldNanos());
+        c.micros.record(micros);
+    }
+
+    //A connection dropped because of an I/O error rather than QUIT or end of stream
+    public void connectionError() {
+        connectionErrors.increment();
+    }
+
+    public LatencyHistogram latency(String command) {
+        return commands.get(command).micros;
+    }
+
+    public int getConnections() { return connections.getAsInt(); }
+    public long getConnectionErrors() { return connectionErrors.sum(); }
+    public int getFreeBlocks() { return fs.freeBlocks(); }
+    public int getFreeFiles() { return fs.freeFiles(); }
+    public long getLockWaitMicros() { return fs.lockWaitNanos() / 1000; }
+    public long getLockHoldMicros() { return fs.lockHoldNanos() / 1000; }
+    public long getDiskReads() { return fs.getDeviceMetrics().reads(); }
+    public long getDiskWrites() { return fs.getDeviceMetrics().writes(); }
+
+    //Volume-wide figures first, then one group per command that has run at least once
+    public Map<String, Long> getStats() {
+        MeteredBlockDevice disk = fs.getDeviceMetrics();
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("connections", (long) getConnections());
+        stats.put("connectionErrors", getConnectionErrors());
+        stats.put("freeBlocks", (long) getFreeBlocks());
+        stats.put("totalBlocks", (long) fs.getSuperblock().getMaxBlocks());
+        stats.put("freeFiles", (long) getFreeFiles());
+        stats.put("totalFiles", (long) fs.getSuperblock().getMaxFiles());
+        stats.put("diskReads", disk.reads());
+        stats.put("diskWrites", disk.writes());
+        stats.put("diskBytesRead", disk.bytesRead());
+        stats.put("diskBytesWritten", disk.bytesWritten());
+        stats.put("diskFlushes", disk.flushes());
+        stats.put("lockAcquisitions", fs.lockAcquisitions());
+        stats.put("lockWaitMicros", getLockWaitMicros());
+        stats.put("lockHoldMicros", getLockHoldMicros());
+
+        for (Map.Entry<String, Command> e : commands.entrySet()) {
+            Command c = e.getValue();
+            long count = c.count.sum();
+            if (count == 0) continue;
+            String p = e.getKey() + ".";
+            stats.put(p + "count", count);
+            stats.put(p + "errors", c.errors.sum());
+            stats.put(p + "bytesIn", c.bytesIn.sum());
+            stats.put(p + "bytesOut", c.bytesOut.sum());
+            stats.put(p + "diskReads", c.diskReads.sum());
+            stats.put(p + "diskWrites", c.diskWrites.sum());
+            stats.put(p + "lockWaitMicros", c.lockWaitNanos.sum() / 1000);
+            stats.put(p + "lockHoldMicros", c.lockHoldNanos.sum() / 1000);
+            stats.put(p + "meanMicros", Math.round(c.micros.mean()));
+            stats.put(p + "p50Micros", c.micros.percentile(50));
+            stats.put(p + "p99Micros", c.micros.percentile(99));
+            stats.put(p + "p999Micros", c.micros.percentile(99.9));
+            stats.put(p + "maxMicros", c.micros.max());
+        }
+        return stats;
+    }
+
+    //One line of space separated key=value pairs, as returned by STATS
+    public String format() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> e : getStats().entrySet()) {
+            if (sb.length() > 0) sb.append(' ');
+            sb.append(e.getKey()).append('=').append(e.getValue());
+        }
+        return sb.toString();
+    }
+
+    //Publishes this as an MXBean, replacing one left behind by an earlier server on the same port
+    public ObjectName register(int port) throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("ca.concordia:type=FileServer,port=" + port);
+        if (server.isRegistered(name)) server.unregisterMBean(name);
+        server.registerMBean(this, name);
+        return name;
+    }
+
+    public static void unregister(ObjectName name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException ignored) {
+        }
+    }
+}
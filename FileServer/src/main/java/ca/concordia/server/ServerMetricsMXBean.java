@@ -0,0 +1,26 @@
+package ca.concordia.server;
+
+import java.util.Map;
+
+//JMX view of ServerMetrics, registered as ca.concordia:type=FileServer,port=<port> while the server runs
+public interface ServerMetricsMXBean {
+
+    int getConnections();
+
+    long getConnectionErrors();
+
+    int getFreeBlocks();
+
+    int getFreeFiles();
+
+    long getLockWaitMicros();
+
+    long getLockHoldMicros();
+
+    long getDiskReads();
+
+    long getDiskWrites();
+
+    //Everything STATS reports, per-command figures included
+    Map<String, Long> getStats();
+}
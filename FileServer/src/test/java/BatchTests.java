@@ -0,0 +1,146 @@
+import ca.concordia.filesystem.BatchResult;
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.Journal;
+import ca.concordia.filesystem.datastructures.Superblock;
+import ca.concordia.filesystem.device.MemoryBlockDevice;
+import ca.concordia.server.CommandProcessor;
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchTests {
+
+    static List<String> lines(byte[] reply) {
+        return Arrays.asList(new String(reply).split(System.lineSeparator()));
+    }
+
+    static String mwrite(Map<String, String> files) {
+        StringBuilder sb = new StringBuilder("MWRITE");
+        files.forEach((name, content) -> sb.append(' ').append(name).append(' ').append(content.length()).append(' ').append(content));
+        return sb.toString();
+    }
+
+    @Test
+    void testBatchCommandsAnswerPerItem() throws Exception {
+        CommandProcessor processor = new CommandProcessor(TestSupport.inMemory(4 * 1024 * 1024, 512, 256));
+        processor.execute("CREATE b");
+
+        assertEquals(List.of("OK 4", "OK", "ERROR: file already exists", "OK", "ERROR: filename too large"),
+                lines(processor.execute("MCREATE a b c waytoolongname")));
+
+        Map<String, String> files = new LinkedHashMap<>();
+        files.put("a", "hello world");
+        files.put("missing", "x");
+        files.put("c", "");
+        assertEquals(List.of("OK 3", "OK", "ERROR: file missing does not exist", "OK"), lines(processor.execute(mwrite(files))));
+
+        assertEquals(List.of("OK 3", "OK hello world", "ERROR: file missing does not exist", "OK "),
+                lines(processor.execute("MREAD a missing c")));
+        assertEquals("OK hello world", new String(processor.execute("READ a")).trim());
+    }
+
+    @Test
+    void testMWriteContentMayHoldSpaces() throws Exception {
+        CommandProcessor processor = new CommandProcessor(TestSupport.inMemory(4 * 1024 * 1024, 512, 256));
+        processor.execute("MCREATE x y");
+        Map<String, String> files = new LinkedHashMap<>();
+        files.put("x", " 3 y ");
+        files.put("y", "trailing  ");
+        assertEquals("OK 2", lines(processor.execute(mwrite(files))).get(0));
+        assertArrayEquals(" 3 y ".getBytes(), processor.getFileSystem().readFile("x"));
+        assertArrayEquals("trailing  ".getBytes(), processor.getFileSystem().readFile("y"));
+
+        assertEquals("ERROR: malformed command", new String(processor.execute("MWRITE x 10 short")).trim());
+        assertEquals("ERROR: malformed command", new String(processor.execute("MWRITE x two words")).trim());
+        assertEquals("ERROR: malformed command", new String(processor.execute("MWRITE")).trim());
+        assertEquals("ERROR: malformed command", new String(processor.execute("MREAD")).trim());
+    }
+
+    @Test
+    void testBatchIsOneLockAcquisitionAndOneCommit() throws Exception {
+        FileSystemManager fs = TestSupport.inMemory(4 * 1024 * 1024, 512, 256);
+        Journal journal = fs.getJournal();
+        int n = 200;
+        String[] names = new String[n];
+        byte[][] data = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            names[i] = "f" + i;
+            data[i] = ("content of " + i).getBytes();
+        }
+
+        long txns = journal.transactions();
+        for (BatchResult r : fs.createFiles(names)) assertTrue(r.isOk());
+        assertEquals(1, journal.transactions() - txns);
+
+        byte[][] empty = new byte[n][];
+        Arrays.fill(empty, new byte[0]);
+        txns = journal.transactions();
+        for (BatchResult r : fs.writeFiles(names, empty)) assertTrue(r.isOk(), r.getError());
+        assertEquals(1, journal.transactions() - txns);     //new files have no old content to free
+
+        txns = journal.transactions();
+        long locks = fs.lockAcquisitions();
+        for (BatchResult r : fs.writeFiles(names, data)) assertTrue(r.isOk(), r.getError());
+        //The new content, then the release of the old chains: two commits however many files
+        assertEquals(2, journal.transactions() - txns);
+        assertEquals(1, fs.lockAcquisitions() - locks);
+
+        BatchResult[] read = fs.readFiles(names);
+        for (int i = 0; i < n; i++) assertArrayEquals(data[i], read[i].getData());
+    }
+
+    @Test
+    void testItemsThatDoNotFitFailAlone() throws Exception {
+        FileSystemManager fs = new FileSystemManager(new MemoryBlockDevice(512, 64 * 1024, false), new Superblock(512, 8, 16));
+        fs.createFiles(new String[]{"a", "b", "c"});
+        BatchResult[] results = fs.writeFiles(new String[]{"a", "b", "c"},
+                new byte[][]{new byte[4 * 512], new byte[20 * 512], new byte[4 * 512]});
+        assertTrue(results[0].isOk());
+        assertEquals("ERROR: file too large", results[1].getError());
+        assertTrue(results[2].isOk());
+        assertEquals(0, fs.fileSize("b"));
+        assertEquals(4 * 512, fs.fileSize("c"));
+    }
+
+    @Test
+    @Timeout(30)
+    void testOverlappingBatchesDoNotDeadlock() throws Exception {
+        FileSystemManager fs = TestSupport.inMemory(4 * 1024 * 1024, 512, 256);
+        String[] names = new String[32];
+        for (int i = 0; i < names.length; i++) names[i] = "s" + i;
+        fs.createFiles(names);
+
+        List<Thread> workers = new ArrayList<>();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        for (int t = 0; t < 8; t++) {
+            int id = t;
+            Thread w = new Thread(() -> {
+                Random rnd = new Random(id);
+                try {
+                    for (int round = 0; round < 200; round++) {
+                        List<String> batch = new ArrayList<>(Arrays.asList(names));
+                        Collections.shuffle(batch, rnd);
+                        String[] pick = batch.subList(0, 8).toArray(new String[0]);
+                        if (id % 3 == 0) {
+                            fs.writeFile(pick[0], ("single " + id).getBytes());
+                        } else if (id % 3 == 1) {
+                            byte[][] data = new byte[pick.length][];
+                            Arrays.fill(data, ("batch " + id).getBytes());
+                            for (BatchResult r : fs.writeFiles(pick, data)) assertTrue(r.isOk());
+                        } else {
+                            for (BatchResult r : fs.readFiles(pick)) assertTrue(new String(r.getData()).matches("|single \\d|batch \\d"));
+                        }
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+            workers.add(w);
+            w.start();
+        }
+        for (Thread w : workers) w.join();
+        assertEquals(List.of(), errors);
+    }
+}
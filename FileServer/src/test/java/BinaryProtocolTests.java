@@ -0,0 +1,316 @@
+import ca.concordia.server.*;
+import org.junit.jupiter.api.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinaryProtocolTests {
+
+    static final int BLOCKING_PORT = 12349;
+    static final int NIO_PORT = 12350;
+    static final int STALLED_PORT = 12352;
+    static FileServer blocking;
+    static NioServer nio;
+
+    static void run(String name, Callable task) {
+        Thread t = new Thread(() -> {
+            try { task.call(); } catch (Exception ignored) {}
+        }, name);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    interface Callable { void call() throws Exception; }
+
+    @BeforeAll
+    static void startServers() throws Exception {
+        blocking = new FileServer(BLOCKING_PORT, TestSupport.inMemory(4 * 1024 * 1024, 512, 64), new ConnectionDispatcher(ExecutionMode.POOL, 4, 16, 0));
+        nio = new NioServer(NIO_PORT, new CommandProcessor(TestSupport.inMemory(4 * 1024 * 1024, 512, 64)), 1, 2, 64, 256, 1024 * 1024);
+        run("blocking", blocking::start);
+        run("nio", nio::start);
+    }
+
+    @AfterAll
+    static void stopServers() throws Exception {
+        blocking.stop(500);
+        nio.stop(500);
+    }
+
+    //Minimal binary client: negotiates on connect, then exchanges frames
+    static class Client implements Closeable {
+        final Socket sock;
+        final DataInputStream in;
+        final OutputStream out;
+        int nextId = 1;
+
+        Client(int port) throws Exception {
+            Socket s = null;
+            for (int i = 0; i < 50 && s == null; i++) {
+                try { s = new Socket("localhost", port); }
+                catch (ConnectException e) { Thread.sleep(100); }
+            }
+            sock = s;
+            in = new DataInputStream(new BufferedInputStream(sock.getInputStream()));
+            out = sock.getOutputStream();
+            out.write("PROTO BINARY\n".getBytes());
+            assertEquals("OK binary", readTextLine());
+        }
+
+        String readTextLine() throws IOException {
+            StringBuilder sb = new StringBuilder();
+            int c;
+            while ((c = in.read()) != '\n') sb.append((char) c);
+            return sb.toString().trim();
+        }
+
+        int send(byte op, String name, byte[] payload) throws IOException {
+            int id = nextId++;
+            out.write(BinaryProtocol.request(op, id, name, payload));
+            return id;
+        }
+
+        //Returns {status, payload} after checking the request id
+        Object[] receive(int id) throws IOException {
+            byte status = in.readByte();
+            assertEquals(id, in.readInt());
+            byte[] payload = new byte[in.readInt()];
+            in.readFully(payload);
+            return new Object[]{status, payload};
+        }
+
+        byte[] call(byte op, String name, byte[] payload) throws IOException {
+            Object[] r = receive(send(op, name, payload));
+            assertEquals(BinaryProtocol.STATUS_OK, (byte) r[0], () -> new String((byte[]) r[1]));
+            return (byte[]) r[1];
+        }
+
+        public void close() throws IOException { sock.close(); }
+    }
+
+    static byte[] everyByteValue(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) data[i] = (byte) i;
+        return data;
+    }
+
+    void roundTripsRawBytes(int port) throws Exception {
+        byte[] data = everyByteValue(70_000);
+        try (Client c = new Client(port)) {
+            c.call(BinaryProtocol.CREATE, "raw", null);
+            c.call(BinaryProtocol.WRITE, "raw", data);
+            assertArrayEquals(data, c.call(BinaryProtocol.READ, "raw", null));
+
+            byte[] lines = "line one\nline two\r\n".getBytes();
+            c.call(BinaryProtocol.WRITE, "raw", lines);
+            assertArrayEquals(lines, c.call(BinaryProtocol.READ, "raw", null));
+            assertEquals("raw", new String(c.call(BinaryProtocol.LIST, null, null)));
+
+            Object[] err = c.receive(c.send(BinaryProtocol.READ, "missing", null));
+            assertEquals(BinaryProtocol.STATUS_ERROR, (byte) err[0]);
+            assertTrue(new String((byte[]) err[1]).startsWith("ERROR"));
+
+            c.call(BinaryProtocol.DELETE, "raw", null);
+            c.call(BinaryProtocol.QUIT, null, null);
+            assertEquals(-1, c.in.read());
+        }
+    }
+
+    @Test
+    @Timeout(20)
+    void testBlockingServerRoundTripsRawBytes() throws Exception {
+        roundTripsRawBytes(BLOCKING_PORT);
+    }
+
+    @Test
+    @Timeout(20)
+    void testNioServerRoundTripsRawBytes() throws Exception {
+        roundTripsRawBytes(NIO_PORT);
+    }
+
+    @Test
+    @Timeout(20)
+    void testFramesSentBackToBackAreAnsweredInOrder() throws Exception {
+        for (int port : new int[]{BLOCKING_PORT, NIO_PORT}) {
+            try (Client c = new Client(port)) {
+                ByteArrayOutputStream batch = new ByteArrayOutputStream();
+                batch.write(BinaryProtocol.request(BinaryProtocol.CREATE, 1, "seq", null));
+                batch.write(BinaryProtocol.request(BinaryProtocol.WRITE, 2, "seq", new byte[]{0, 10, 13, 0}));
+                batch.write(BinaryProtocol.request(BinaryProtocol.READ, 3, "seq", null));
+                batch.write(BinaryProtocol.request(BinaryProtocol.DELETE, 4, "seq", null));
+                c.out.write(batch.toByteArray());
+
+                for (int id = 1; id <= 4; id++) {
+                    Object[] r = c.receive(id);
+                    assertEquals(BinaryProtocol.STATUS_OK, (byte) r[0]);
+                    if (id == 3) assertArrayEquals(new byte[]{0, 10, 13, 0}, (byte[]) r[1]);
+                }
+            }
+        }
+    }
+
+    @Test
+    @Timeout(20)
+    void testOversizedFrameIsRefusedBeforeItsPayloadArrives() throws Exception {
+        for (int port : new int[]{BLOCKING_PORT, NIO_PORT}) {
+            try (Client c = new Client(port)) {
+                //A header claiming a 2 GB payload, with none of it sent
+                c.out.write(ByteBuffer.allocate(BinaryProtocol.REQUEST_HEADER)
+                        .put(BinaryProtocol.WRITE).putInt(7).putShort((short) 1).putInt(Integer.MAX_VALUE).array());
+                Object[] r = c.receive(7);
+                assertEquals(BinaryProtocol.STATUS_ERROR, (byte) r[0]);
+                assertEquals(BinaryProtocol.TOO_LONG_ERROR, new String((byte[]) r[1]));
+                assertEquals(-1, c.in.read(), "the connection is closed");
+            }
+        }
+    }
+
+    @Test
+    @Timeout(30)
+    void testClientThatStopsReadingDoesNotHoldRequestThreads() throws Exception {
+        System.setProperty("fs.server.pipelineThreads", "1");
+        FileServer server;
+        try {
+            server = new FileServer(STALLED_PORT, TestSupport.inMemory(4 * 1024 * 1024, 512, 64), new ConnectionDispatcher(ExecutionMode.THREAD, 0, 0, 0));
+        } finally {
+            System.clearProperty("fs.server.pipelineThreads");
+        }
+        run("stalled", server::start);
+        try (Client stalled = new Client(STALLED_PORT)) {
+            stalled.call(BinaryProtocol.CREATE, "big", null);
+            stalled.call(BinaryProtocol.WRITE, "big", new byte[256 * 1024]);
+            //16 MB of answers nobody reads: far more than the socket buffers hold
+            for (int i = 0; i < 64; i++) stalled.send(BinaryProtocol.READ, "big", null);
+            Thread.sleep(200);
+
+            try (Client other = new Client(STALLED_PORT)) {
+                other.sock.setSoTimeout(5000);
+                other.call(BinaryProtocol.CREATE, "small", null);
+                assertEquals("big,small", new String(other.call(BinaryProtocol.LIST, null, null)));
+            }
+        } finally {
+            server.stop(500);
+        }
+    }
+
+    @Test
+    @Timeout(20)
+    void testTextClientsAreUnaffected() throws Exception {
+        for (int port : new int[]{BLOCKING_PORT, NIO_PORT}) {
+            try (Socket s = new Socket("localhost", port)) {
+                PrintWriter out = new PrintWriter(s.getOutputStream(), true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+                out.println("PROTO SMOKE");
+                assertTrue(in.readLine().startsWith("ERROR"));
+                out.println("PROTO TEXT");
+                assertEquals("OK text", in.readLine());
+                out.println("LIST");
+                assertTrue(in.readLine().startsWith("OK"));
+            }
+        }
+    }
+
+    @Test
+    @Timeout(30)
+    void testPipelinedRequestsKeepPerFileOrder() throws Exception {
+        for (int port : new int[]{BLOCKING_PORT, NIO_PORT}) {
+            try (Client c = new Client(port)) {
+                int files = 8, rounds = 50;
+                Map<Integer, String> expectedReads = new HashMap<>();
+                ByteArrayOutputStream batch = new ByteArrayOutputStream();
+                int id = 100;
+                for (int f = 0; f < files; f++)
+                    batch.write(BinaryProtocol.request(BinaryProtocol.CREATE, id++, "p" + f, null));
+                for (int r = 0; r < rounds; r++) {
+                    for (int f = 0; f < files; f++) {
+                        String content = "p" + f + " round " + r;
+                        batch.write(BinaryProtocol.request(BinaryProtocol.WRITE, id++, "p" + f, content.getBytes()));
+                        expectedReads.put(id, content);
+                        batch.write(BinaryProtocol.request(BinaryProtocol.READ, id++, "p" + f, null));
+                    }
+                }
+                for (int f = 0; f < files; f++)
+                    batch.write(BinaryProtocol.request(BinaryProtocol.DELETE, id++, "p" + f, null));
+                batch.write(BinaryProtocol.request(BinaryProtocol.QUIT, id, null, null));
+                c.out.write(batch.toByteArray());
+
+                //Every request is answered once, in any order, and QUIT only after all of them
+                Set<Integer> seen = new HashSet<>();
+                for (int n = 100; n < id; n++) {
+                    byte status = c.in.readByte();
+                    int rid = c.in.readInt();
+                    byte[] payload = new byte[c.in.readInt()];
+                    c.in.readFully(payload);
+                    assertEquals(BinaryProtocol.STATUS_OK, status, new String(payload));
+                    assertTrue(seen.add(rid));
+                    if (expectedReads.containsKey(rid))
+                        assertEquals(expectedReads.get(rid), new String(payload));
+                }
+                c.receive(id);
+                assertEquals(-1, c.in.read());
+            }
+        }
+    }
+
+    @Test
+    @Timeout(30)
+    void testChunkedUploadAndRangedReads() throws Exception {
+        byte[] data = everyByteValue(200_000);
+        int chunk = 16 * 1024;
+        for (int port : new int[]{BLOCKING_PORT, NIO_PORT}) {
+            try (Client c = new Client(port)) {
+                c.call(BinaryProtocol.CREATE, "up", null);
+
+                //All chunks go out before any answer is read; same-file order keeps them in sequence
+                int first = c.nextId;
+                for (int off = 0; off < data.length; off += chunk)
+                    c.send(BinaryProtocol.APPEND, "up", Arrays.copyOfRange(data, off, Math.min(data.length, off + chunk)));
+                Map<Integer, Long> offsets = new HashMap<>();
+                for (int n = first; n < c.nextId; n++) {
+                    byte status = c.in.readByte();
+                    int rid = c.in.readInt();
+                    byte[] payload = new byte[c.in.readInt()];
+                    c.in.readFully(payload);
+                    assertEquals(BinaryProtocol.STATUS_OK, status);
+                    offsets.put(rid, ByteBuffer.wrap(payload).getLong());
+                }
+                for (int n = first; n < c.nextId; n++)
+                    assertEquals((long) (n - first) * chunk, offsets.get(n));
+
+                byte[] range = c.call(BinaryProtocol.READ_RANGE, "up",
+                        ByteBuffer.allocate(12).putLong(99_000).putInt(5000).array());
+                assertArrayEquals(Arrays.copyOfRange(data, 99_000, 104_000), range);
+
+                c.call(BinaryProtocol.WRITE_AT, "up", ByteBuffer.allocate(11).putLong(10).put("abc".getBytes()).array());
+                c.call(BinaryProtocol.TRUNCATE, "up", ByteBuffer.allocate(8).putLong(13).array());
+                byte[] expected = Arrays.copyOf(data, 13);
+                System.arraycopy("abc".getBytes(), 0, expected, 10, 3);
+                assertArrayEquals(expected, c.call(BinaryProtocol.READ, "up", null));
+
+                c.call(BinaryProtocol.DELETE, "up", null);
+            }
+        }
+    }
+
+    @Test
+    @Timeout(30)
+    void testOversizedRangedReadIsRefusedByBothProtocols() throws Exception {
+        int tooLong = BinaryProtocol.MAX_CHUNK + 1;
+        String expected = "ERROR: chunk larger than " + BinaryProtocol.MAX_CHUNK;
+        CommandProcessor processor = new CommandProcessor(TestSupport.inMemory(4 * 1024 * 1024, 512, 64));
+        processor.execute("CREATE big");
+        assertEquals(expected, new String(processor.execute("READAT big 0 " + tooLong)).trim());
+
+        try (Client c = new Client(BLOCKING_PORT)) {
+            c.call(BinaryProtocol.CREATE, "big", null);
+            Object[] r = c.receive(c.send(BinaryProtocol.READ_RANGE, "big",
+                    ByteBuffer.allocate(12).putLong(0).putInt(tooLong).array()));
+            assertEquals(BinaryProtocol.STATUS_ERROR, (byte) r[0]);
+            assertEquals(expected, new String((byte[]) r[1]));
+            c.call(BinaryProtocol.DELETE, "big", null);
+        }
+    }
+}
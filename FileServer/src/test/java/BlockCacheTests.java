@@ -0,0 +1,70 @@
+import ca.concordia.filesystem.device.*;
+import org.junit.jupiter.api.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockCacheTests {
+
+    private static byte[] read(BlockDevice dev, long pos, int len) throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(len);
+        dev.read(pos, buf);
+        return buf.array();
+    }
+
+    @Test
+    void testRepeatedReadsHitTheCache() throws Exception {
+        MemoryBlockDevice disk = new MemoryBlockDevice(128, 64 * 1024, false);
+        disk.write(0, ByteBuffer.wrap("hot block".getBytes()));
+        CachingBlockDevice cache = new CachingBlockDevice(disk, 32, false);
+
+        for (int i = 0; i < 10; i++)
+            assertEquals("hot block", new String(read(cache, 0, 9)));
+
+        assertEquals(1, cache.misses());
+        assertEquals(9, cache.hits());
+    }
+
+    @Test
+    void testWriteThroughKeepsCacheAndDiskInSync() throws Exception {
+        MemoryBlockDevice disk = new MemoryBlockDevice(128, 64 * 1024, false);
+        CachingBlockDevice cache = new CachingBlockDevice(disk, 32, false);
+        read(cache, 0, 256);                                       //blocks 0 and 1 now resident
+
+        cache.write(100, ByteBuffer.wrap("spans two blocks".getBytes()));
+        assertEquals("spans two blocks", new String(read(cache, 100, 16)));
+        assertEquals("spans two blocks", new String(read(disk, 100, 16)));
+    }
+
+    @Test
+    void testEvictionsWithSmallCapacity() throws Exception {
+        MemoryBlockDevice disk = new MemoryBlockDevice(128, 64 * 1024, false);
+        CachingBlockDevice cache = new CachingBlockDevice(disk, 4, false);
+        for (int blk = 0; blk < 20; blk++) read(cache, blk * 128L, 128);
+
+        assertEquals(20, cache.misses());
+        assertEquals(16, cache.evictions());
+    }
+
+    @Test
+    void testWriteBackReachesDiskOnFlush() throws Exception {
+        MemoryBlockDevice disk = new MemoryBlockDevice(128, 64 * 1024, false);
+        CachingBlockDevice cache = new CachingBlockDevice(disk, 8, true);
+
+        cache.write(128, ByteBuffer.wrap("deferred".getBytes()));
+        assertEquals("deferred", new String(read(cache, 128, 8)));
+        assertNotEquals("deferred", new String(read(disk, 128, 8)));
+
+        //Streaming must see the dirty frame, not the stale disk block
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        cache.transferTo(128, 8, Channels.newChannel(sink));
+        assertEquals("deferred", sink.toString());
+
+        cache.flush();
+        assertEquals("deferred", new String(read(disk, 128, 8)));
+        assertEquals(1, cache.writebacks());
+    }
+}
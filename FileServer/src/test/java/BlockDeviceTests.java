@@ -0,0 +1,75 @@
+import ca.concordia.filesystem.device.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+public class BlockDeviceTests {
+
+    @TempDir
+    Path dir;
+
+    //Unaligned and block-spanning writes must read back identically on every device
+    private void checkDevice(BlockDevice dev) throws Exception {
+        byte[] data = new byte[3000];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) (i * 7);
+        dev.write(100, ByteBuffer.wrap(data));
+        dev.writeBlock(10, ByteBuffer.wrap("block ten".getBytes()));
+
+        ByteBuffer back = ByteBuffer.allocate(data.length);
+        dev.read(100, back);
+        assertArrayEquals(data, back.array());
+
+        ByteBuffer a = ByteBuffer.allocate(5), b = ByteBuffer.allocate(4);
+        dev.readBlocks(10, new ByteBuffer[]{a, b});
+        assertEquals("block ten", new String(a.array()) + new String(b.array()));
+
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        assertEquals(data.length, dev.transferTo(100, data.length, Channels.newChannel(sink)));
+        assertArrayEquals(data, sink.toByteArray());
+
+        dev.flush();
+        dev.close();
+    }
+
+    @Test
+    void testMemoryDevice() throws Exception {
+        checkDevice(new MemoryBlockDevice(512, 64 * 1024, false));
+        checkDevice(new MemoryBlockDevice(512, 64 * 1024, true));
+    }
+
+    @Test
+    void testFileDevice() throws Exception {
+        checkDevice(new FileBlockDevice(dir.resolve("raf.dat"), 512, 64 * 1024));
+    }
+
+    @Test
+    void testMappedDevice() throws Exception {
+        checkDevice(new MappedBlockDevice(dir.resolve("mmap.dat"), 512, 64 * 1024));
+    }
+
+    @Test
+    void testDirectDevice() throws Exception {
+        assumeTrue(DirectBlockDevice.directOption() != null);
+        BlockDevice dev;
+        try {
+            dev = new DirectBlockDevice(dir.resolve("direct.dat"), 512, 64 * 1024);
+        } catch (Exception e) {
+            assumeTrue(false, "O_DIRECT not supported here: " + e.getMessage());
+            return;
+        }
+        checkDevice(dev);
+    }
+
+    @Test
+    void testReadPastEndFails() {
+        BlockDevice dev = new MemoryBlockDevice(512, 1024, false);
+        assertThrows(java.io.EOFException.class, () -> dev.read(1000, ByteBuffer.allocate(100)));
+    }
+}
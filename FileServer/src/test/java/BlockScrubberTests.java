@@ -0,0 +1,190 @@
+import ca.concordia.filesystem.BlockScrubber;
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.datastructures.ExtentAllocator;
+import ca.concordia.filesystem.datastructures.Superblock;
+import ca.concordia.filesystem.device.MemoryBlockDevice;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockScrubberTests {
+
+    static final Superblock GEOMETRY = new Superblock(512, 8, 128);
+
+    static class CountingDevice extends MemoryBlockDevice {
+        volatile long written;
+
+        CountingDevice() { super(512, 256 * 1024, false); }
+
+        @Override
+        public void write(long pos, ByteBuffer src) throws IOException {
+            written += src.remaining();
+            super.write(pos, src);
+        }
+    }
+
+    //Once armed, records any write into the guarded data blocks made before a flush has followed the next
+    //metadata write, which is the commit that detaches them
+    static class OrderingDevice extends MemoryBlockDevice {
+        volatile long guardFrom, guardTo;
+        volatile boolean committed, durable;
+        volatile int violations;
+
+        OrderingDevice() { super(512, 256 * 1024, false); }
+
+        void arm(long from, long to) {
+            guardFrom = from;
+            guardTo = to;
+            committed = durable = false;
+        }
+
+        @Override
+        public void write(long pos, ByteBuffer src) throws IOException {
+            if (pos < GEOMETRY.blockOffset(0)) committed = true;
+            else if (!durable && pos < guardTo && pos + src.remaining() > guardFrom) violations++;
+            super.write(pos, src);
+        }
+
+        @Override
+        public void flush() {
+            if (committed) durable = true;
+            super.flush();
+        }
+    }
+
+    static byte[] block(MemoryBlockDevice disk, int blk) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(512);
+        disk.read(GEOMETRY.blockOffset(blk), buf);
+        return buf.array();
+    }
+
+    @Test
+    void testDeleteDoesNotZeroInline() throws Exception {
+        CountingDevice disk = new CountingDevice();
+        FileSystemManager fs = new FileSystemManager(disk, GEOMETRY);
+        fs.createFile("big");
+        fs.writeFile("big", TestSupport.filled(100 * 512, 'b'));
+
+        fs.getScrubber().close();                  //keep the freed blocks as they are
+        long before = disk.written;
+        fs.deleteFile("big");
+        assertTrue(disk.written - before < 4096, "delete wrote " + (disk.written - before) + " bytes");
+        assertArrayEquals(TestSupport.filled(512, 'b'), block(disk, 0));
+
+        //The space is reusable straight away
+        fs.createFile("next");
+        fs.writeFile("next", TestSupport.filled(128 * 512, 'n'));
+    }
+
+    @Test
+    void testFreedBlocksAreScrubbedInTheBackground() throws Exception {
+        CountingDevice disk = new CountingDevice();
+        FileSystemManager fs = new FileSystemManager(disk, GEOMETRY);
+        fs.createFile("f");
+        fs.writeFile("f", TestSupport.filled(40 * 512, 'f'));
+        fs.writeFile("f", "short".getBytes());     //the old 40 blocks are released
+
+        BlockScrubber scrubber = fs.getScrubber();
+        scrubber.awaitIdle();
+        assertEquals(0, scrubber.pendingBlocks());
+        assertEquals(40, scrubber.scrubbedBlocks() + scrubber.skippedBlocks());
+        for (int blk = 0; blk < 128; blk++) {
+            byte[] data = block(disk, blk);
+            for (byte b : data) assertNotEquals('f', b, "block " + blk);
+        }
+        assertEquals("short", new String(fs.readFile("f")));
+    }
+
+    @Test
+    @Timeout(10)
+    void testReleasedBlocksWaitForTheReleasingCommitToBeDurable() throws Exception {
+        OrderingDevice disk = new OrderingDevice();
+        FileSystemManager fs = new FileSystemManager(disk, GEOMETRY);
+        fs.createFile("f");
+        fs.writeFile("f", TestSupport.filled(40 * 512, 'f'));
+        disk.flush();
+
+        //Neither the scrubber's zeros nor another file's data may reach f's old blocks before the commit
+        //that detached them: a crash in between would bring f back over them
+        disk.arm(GEOMETRY.blockOffset(0), GEOMETRY.blockOffset(40));
+        fs.writeFile("f", "short".getBytes());
+        fs.createFile("g");
+        fs.writeFile("g", TestSupport.filled(100 * 512, 'g'));
+        fs.getScrubber().awaitIdle();
+
+        assertEquals(0, disk.violations);
+        assertEquals("short", new String(fs.readFile("f")));
+        assertArrayEquals(TestSupport.filled(100 * 512, 'g'), fs.readFile("g"));
+        assertEquals(0, fs.getScrubber().pendingBlocks());
+    }
+
+    @Test
+    void testBlocksReusedBeforeScrubbingAreLeftAlone() throws Exception {
+        MemoryBlockDevice disk = new MemoryBlockDevice(512, 256 * 1024, false);
+        for (int blk = 0; blk < 16; blk++) disk.write(GEOMETRY.blockOffset(blk), ByteBuffer.wrap(TestSupport.filled(512, 'x')));
+        ExtentAllocator blocks = new ExtentAllocator(128);
+        ReentrantLock allocLock = new ReentrantLock();
+        BlockScrubber scrubber = new BlockScrubber(disk, GEOMETRY, blocks, allocLock, 64L * 1024 * 1024);
+
+        //Blocks 0-15 were freed; 0-3 are handed out again before the scrubber gets the lock
+        allocLock.lock();
+        try {
+            scrubber.add(0, 16);
+            assertArrayEquals(new int[]{0, 4}, blocks.allocate(4)[0]);
+        } finally {
+            allocLock.unlock();
+        }
+        scrubber.awaitIdle();
+
+        assertEquals(12, scrubber.scrubbedBlocks());
+        assertEquals(4, scrubber.skippedBlocks());
+        assertArrayEquals(TestSupport.filled(512, 'x'), block(disk, 3));
+        assertArrayEquals(new byte[512], block(disk, 4));
+        assertArrayEquals(new byte[512], block(disk, 15));
+    }
+
+    @Test
+    @Timeout(10)
+    void testScrubbingIsThrottled() throws Exception {
+        MemoryBlockDevice disk = new MemoryBlockDevice(512, 256 * 1024, false);
+        BlockScrubber scrubber = new BlockScrubber(disk, GEOMETRY, new ExtentAllocator(128), new ReentrantLock(), 64 * 1024);
+        long start = System.nanoTime();
+        scrubber.add(0, 64);                       //32 KB at 64 KB/s
+        scrubber.awaitIdle();
+        assertTrue(System.nanoTime() - start >= 400_000_000L);
+        assertEquals(64, scrubber.scrubbedBlocks());
+    }
+
+    @Test
+    void testGrowingOverUnscrubbedBlocksReadsZeros() throws Exception {
+        System.setProperty("fs.scrub.rate", "0");
+        FileSystemManager fs;
+        try {
+            fs = new FileSystemManager(new MemoryBlockDevice(512, 256 * 1024, false), GEOMETRY);
+        } finally {
+            System.clearProperty("fs.scrub.rate");
+        }
+        assertFalse(fs.getScrubber().isEnabled());
+
+        fs.createFile("old");
+        fs.writeFile("old", TestSupport.filled(128 * 512, 'o'));
+        fs.deleteFile("old");
+
+        fs.createFile("a");
+        fs.write("a", 0, "abc".getBytes());
+        fs.write("a", 5000, "z".getBytes());
+        byte[] data = fs.readFile("a");
+        assertEquals(5001, data.length);
+        for (int i = 3; i < 5000; i++) assertEquals(0, data[i], "byte " + i);
+
+        fs.truncate("a", 1);
+        fs.truncate("a", 20_000);
+        data = fs.readFile("a");
+        assertEquals('a', data[0]);
+        for (int i = 1; i < data.length; i++) assertEquals(0, data[i], "byte " + i);
+    }
+}
@@ -0,0 +1,71 @@
+import ca.concordia.filesystem.FileSystemManager;
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConcurrentAccessTests {
+
+    @Test
+    @Timeout(20)
+    void testWritersOnDifferentFilesDoNotCorruptEachOther() throws Exception {
+        FileSystemManager fs = TestSupport.inMemory(4 * 1024 * 1024, 512, 64);
+        int files = 8;
+        for (int i = 0; i < files; i++) fs.createFile("f" + i);
+
+        ExecutorService pool = Executors.newFixedThreadPool(files * 2);
+        List<Future<?>> jobs = new ArrayList<>();
+        for (int i = 0; i < files; i++) {
+            final String name = "f" + i;
+            jobs.add(pool.submit(() -> {
+                for (int round = 0; round < 50; round++) {
+                    String content = (name + ":" + round + ";").repeat(100);
+                    fs.writeFile(name, content.getBytes());
+                    assertEquals(content, new String(fs.readFile(name)));
+                }
+                return null;
+            }));
+            jobs.add(pool.submit(() -> {
+                for (int round = 0; round < 50; round++) {
+                    String content = new String(fs.readFile(name));
+                    assertTrue(content.isEmpty() || content.startsWith(name + ":"));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> job : jobs) job.get();
+        pool.shutdown();
+
+        assertEquals(files, fs.listFiles().length);
+    }
+
+    @Test
+    @Timeout(20)
+    void testCreateAndDeleteRaceWithReads() throws Exception {
+        FileSystemManager fs = TestSupport.inMemory(1024 * 1024, 256, 32);
+        fs.createFile("stable");
+        fs.writeFile("stable", "still here".getBytes());
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        Future<?> churn = pool.submit(() -> {
+            for (int i = 0; i < 200; i++) {
+                fs.createFile("tmp");
+                fs.writeFile("tmp", ("x" + i).getBytes());
+                fs.deleteFile("tmp");
+            }
+            return null;
+        });
+        Future<?> reader = pool.submit(() -> {
+            for (int i = 0; i < 500; i++)
+                assertEquals("still here", new String(fs.readFile("stable")));
+            return null;
+        });
+        churn.get();
+        reader.get();
+        pool.shutdown();
+
+        assertArrayEquals(new String[]{"stable"}, fs.listFiles());
+    }
+}
@@ -0,0 +1,101 @@
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.server.ConnectionDispatcher;
+import ca.concordia.server.ExecutionMode;
+import ca.concordia.server.FileServer;
+import org.junit.jupiter.api.*;
+
+import java.io.*;
+import java.net.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConnectionDispatcherTests {
+
+    static final int PORT = 12346;
+
+    static FileServer startServer(ConnectionDispatcher dispatcher) throws Exception {
+        FileSystemManager fs = TestSupport.inMemory(64 * 1024, 128, 16);
+        FileServer server = new FileServer(PORT, fs, dispatcher);
+        Thread t = new Thread(() -> {
+            try { server.start(); } catch (Exception ignored) {}
+        });
+        t.setDaemon(true);
+        t.start();
+        return server;
+    }
+
+    static Socket connect() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            try {
+                return new Socket("localhost", PORT);
+            } catch (ConnectException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IOException("server did not start");
+    }
+
+    static String send(Socket s, String line) throws IOException {
+        PrintWriter out = new PrintWriter(s.getOutputStream(), true);
+        out.println(line);
+        return new BufferedReader(new InputStreamReader(s.getInputStream())).readLine();
+    }
+
+    @Test
+    @Timeout(20)
+    void testPoolRefusesConnectionsBeyondQueue() throws Exception {
+        ConnectionDispatcher dispatcher = new ConnectionDispatcher(ExecutionMode.POOL, 1, 1, 0);
+        FileServer server = startServer(dispatcher);
+
+        try (Socket served = connect(); Socket queued = connect(); Socket refused = connect()) {
+            assertEquals("OK ", send(served, "LIST"));
+            assertEquals("ERROR: server busy",
+                    new BufferedReader(new InputStreamReader(refused.getInputStream())).readLine());
+
+            assertEquals(2, dispatcher.openConnections());
+            assertEquals(1, dispatcher.queueDepth());
+            assertEquals(1, dispatcher.activeConnections());
+            assertEquals(1, dispatcher.rejected());
+
+            //The idle client is disconnected after the grace period, then the queued one runs and ends
+            server.stop(200);
+            assertNull(new BufferedReader(new InputStreamReader(served.getInputStream())).readLine());
+            assertNull(new BufferedReader(new InputStreamReader(queued.getInputStream())).readLine());
+            assertEquals(0, dispatcher.openConnections());
+        }
+    }
+
+    @Test
+    @Timeout(20)
+    void testConnectionLimitAppliesToThreadMode() throws Exception {
+        ConnectionDispatcher dispatcher = new ConnectionDispatcher(ExecutionMode.THREAD, 0, 0, 2);
+        FileServer server = startServer(dispatcher);
+
+        try (Socket a = connect(); Socket b = connect()) {
+            assertEquals("OK", send(a, "CREATE f"));
+            assertEquals("OK f", send(b, "LIST"));
+            try (Socket c = connect()) {
+                assertEquals("ERROR: server busy",
+                        new BufferedReader(new InputStreamReader(c.getInputStream())).readLine());
+            }
+            assertEquals("OK closing", send(a, "QUIT"));
+        } finally {
+            server.stop(200);
+        }
+    }
+
+    @Test
+    void testThreadPerConnectionIsTheDefault() {
+        System.clearProperty("fs.server.mode");
+        assertEquals(ExecutionMode.THREAD, ConnectionDispatcher.fromSystemProperties().getMode());
+    }
+
+    @Test
+    void testVirtualModeNeedsVirtualThreads() {
+        boolean available = Runtime.version().feature() >= 21;
+        if (available)
+            assertEquals(ExecutionMode.VIRTUAL, new ConnectionDispatcher(ExecutionMode.VIRTUAL, 0, 0, 0).getMode());
+        else
+            assertThrows(IllegalStateException.class, () -> new ConnectionDispatcher(ExecutionMode.VIRTUAL, 0, 0, 0));
+    }
+}
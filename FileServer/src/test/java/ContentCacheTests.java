@@ -0,0 +1,73 @@
+import ca.concordia.filesystem.CachedFile;
+import ca.concordia.filesystem.FileSystemManager;
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ContentCacheTests {
+
+    static FileSystemManager fs;
+
+    @BeforeEach
+    void setup() throws Exception {
+        fs = TestSupport.inMemory(1024 * 1024, 512, 32);
+    }
+
+    @Test
+    void testRepeatedReadsShareOneSnapshot() throws Exception {
+        fs.createFile("hot");
+        fs.writeFile("hot", "cached content".getBytes());
+
+        CachedFile first = fs.readCached("hot");
+        CachedFile second = fs.readCached("hot");
+        assertSame(first, second);
+        assertEquals(1, fs.getContentCache().hits());
+    }
+
+    @Test
+    void testWriteAndDeleteInvalidate() throws Exception {
+        fs.createFile("doc");
+        fs.writeFile("doc", "v1".getBytes());
+        assertEquals("v1", new String(fs.readCached("doc").getData()));
+
+        fs.writeFile("doc", "v2".getBytes());
+        assertEquals("v2", new String(fs.readCached("doc").getData()));
+
+        fs.deleteFile("doc");
+        assertThrows(Exception.class, () -> fs.readCached("doc"));
+
+        //A new file reusing the slot must not see the old content
+        fs.createFile("doc");
+        assertEquals(0, fs.readCached("doc").size());
+    }
+
+    @Test
+    void testEncodedResponseIsMemoized() throws Exception {
+        fs.createFile("enc");
+        fs.writeFile("enc", "abc".getBytes());
+        CachedFile f = fs.readCached("enc");
+        byte[] a = f.encoded(d -> ("OK " + new String(d)).getBytes());
+        byte[] b = f.encoded(d -> { throw new AssertionError("encoded twice"); });
+        assertSame(a, b);
+        assertEquals("OK abc", new String(a));
+    }
+
+    @Test
+    void testReadFileCopiesEachTimeCachedOrNot() throws Exception {
+        fs.createFile("small");
+        fs.writeFile("small", "tiny".getBytes());
+        fs.createFile("large");
+        byte[] large = new byte[100 * 1024];         //over the default fs.filecache.maxFile
+        large[0] = 1;
+        fs.writeFile("large", large);
+
+        for (String name : new String[]{"small", "large"}) {
+            byte[] first = fs.readFile(name);
+            first[0] = 42;
+            byte[] second = fs.readFile(name);
+            assertNotSame(first, second);
+            assertNotEquals(42, second[0]);
+        }
+        assertEquals(4, fs.getContentCache().bytesUsed());       //only the small file is cached
+    }
+}
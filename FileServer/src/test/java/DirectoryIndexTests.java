@@ -0,0 +1,53 @@
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.datastructures.DirectoryIndex;
+import ca.concordia.filesystem.datastructures.Superblock;
+import ca.concordia.filesystem.device.MemoryBlockDevice;
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DirectoryIndexTests {
+
+    @Test
+    void testRemoveKeepsProbeRunsReachable() {
+        DirectoryIndex index = new DirectoryIndex(1000);
+        Random rnd = new Random(7);
+        Map<String, Integer> expected = new HashMap<>();
+
+        for (int op = 0; op < 20000; op++) {
+            String name = "f" + rnd.nextInt(1500);
+            if (rnd.nextBoolean() && expected.size() < 1000) {
+                assertEquals(!expected.containsKey(name), index.put(name, op));
+                expected.putIfAbsent(name, op);
+            } else {
+                index.remove(name);
+                expected.remove(name);
+            }
+        }
+        assertEquals(expected.size(), index.size());
+        for (int i = 0; i < 1500; i++)
+            assertEquals(expected.getOrDefault("f" + i, -1).intValue(), index.get("f" + i));
+    }
+
+    @Test
+    void testLargeFileTableSurvivesReopen() throws Exception {
+        MemoryBlockDevice device = new MemoryBlockDevice(512, 8 * 1024 * 1024, false);
+        FileSystemManager fs = new FileSystemManager(device, Superblock.forVolume(8 * 1024 * 1024, 512, 20000));
+        for (int i = 0; i < 20000; i++) fs.createFile("file" + i);
+        assertThrows(Exception.class, () -> fs.createFile("overflow"));
+        assertThrows(Exception.class, () -> fs.createFile("file123"));
+
+        for (int i = 0; i < 20000; i += 2) fs.deleteFile("file" + i);
+        fs.createFile("again");
+
+        //Reopen the same device: the index is rebuilt from the file table
+        FileSystemManager reopened = new FileSystemManager(device, null);
+        assertEquals(10001, reopened.listFiles().length);
+        reopened.writeFile("file19999", "last".getBytes());
+        assertEquals("last", new String(reopened.readFile("file19999")));
+        assertThrows(Exception.class, () -> reopened.readFile("file0"));
+        assertThrows(Exception.class, () -> reopened.createFile("again"));
+    }
+}
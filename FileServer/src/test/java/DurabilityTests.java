@@ -0,0 +1,114 @@
+import ca.concordia.filesystem.CommitFlusher;
+import ca.concordia.filesystem.Durability;
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.datastructures.Superblock;
+import ca.concordia.filesystem.device.MemoryBlockDevice;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DurabilityTests {
+
+    //Tracks which writes a completed flush covers; a flush takes flushMillis
+    static class SyncingDevice extends MemoryBlockDevice {
+        final AtomicLong writeSeq = new AtomicLong();
+        final ThreadLocal<Long> lastWrite = ThreadLocal.withInitial(() -> 0L);
+        volatile long durable;
+        final AtomicLong flushes = new AtomicLong();
+        final long flushMillis;
+
+        SyncingDevice(long flushMillis) {
+            super(512, 1024 * 1024, false);
+            this.flushMillis = flushMillis;
+        }
+
+        @Override
+        public void write(long pos, ByteBuffer src) throws IOException {
+            super.write(pos, src);
+            lastWrite.set(writeSeq.incrementAndGet());
+        }
+
+        @Override
+        public void flush() {
+            long covered = writeSeq.get();
+            try { Thread.sleep(flushMillis); } catch (InterruptedException ignored) {}
+            synchronized (this) {
+                durable = Math.max(durable, covered);
+            }
+            flushes.incrementAndGet();
+        }
+    }
+
+    static FileSystemManager volume(SyncingDevice disk, Durability mode) throws Exception {
+        return new FileSystemManager(disk, Superblock.forVolume(1024 * 1024, 512, 64),
+                new CommitFlusher(disk, mode, 500, 64));
+    }
+
+    @Test
+    void testNoneNeverFlushes() throws Exception {
+        SyncingDevice disk = new SyncingDevice(0);
+        FileSystemManager fs = volume(disk, Durability.NONE);
+        //The scrubber flushes in every mode before it reuses released blocks; only commits are under test
+        fs.getScrubber().close();
+        fs.createFile("a");
+        fs.writeFile("a", "data".getBytes());
+        fs.deleteFile("a");
+        assertEquals(0, disk.flushes.get());
+    }
+
+    @Test
+    void testPerOpFlushesBeforeEachAcknowledgement() throws Exception {
+        SyncingDevice disk = new SyncingDevice(0);
+        FileSystemManager fs = volume(disk, Durability.PER_OP);
+        fs.createFile("a");
+        for (int i = 0; i < 10; i++) {
+            fs.append("a", ("line " + i).getBytes());
+            assertTrue(disk.durable >= disk.lastWrite.get());
+        }
+        fs.truncate("a", 3);
+        assertTrue(disk.durable >= disk.lastWrite.get());
+        assertEquals(12, fs.getFlusher().flushes());
+        assertEquals(1.0, fs.getFlusher().meanBatch());
+    }
+
+    @Test
+    @Timeout(30)
+    void testGroupModeSharesFlushesAndAcknowledgesOnlyDurableWrites() throws Exception {
+        SyncingDevice disk = new SyncingDevice(2);
+        FileSystemManager fs = volume(disk, Durability.GROUP);
+        int threads = 16, writes = 20;
+        for (int t = 0; t < threads; t++) fs.createFile("t" + t);
+
+        List<Thread> workers = new ArrayList<>();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        for (int t = 0; t < threads; t++) {
+            String name = "t" + t;
+            Thread w = new Thread(() -> {
+                try {
+                    for (int i = 0; i < writes; i++) {
+                        fs.writeFile(name, (name + " " + i).getBytes());
+                        assertTrue(disk.durable >= disk.lastWrite.get(), "acknowledged before its flush");
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+            workers.add(w);
+            w.start();
+        }
+        for (Thread w : workers) w.join();
+        assertEquals(List.of(), errors);
+
+        CommitFlusher flusher = fs.getFlusher();
+        assertTrue(flusher.flushes() < threads * writes / 2, flusher.flushes() + " flushes");
+        assertTrue(flusher.meanBatch() > 2, "mean batch " + flusher.meanBatch());
+        assertTrue(flusher.largestBatch() <= 64);
+        assertTrue(flusher.maxFlushMicros() >= 2000);
+        fs.close();
+    }
+}
@@ -0,0 +1,78 @@
+import ca.concordia.filesystem.datastructures.ExtentAllocator;
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExtentAllocatorTests {
+
+    @Test
+    void testSingleExtentWhenSpaceIsContiguous() {
+        ExtentAllocator alloc = new ExtentAllocator(1000);
+        int[][] ext = alloc.allocate(300);
+        assertEquals(1, ext.length);
+        assertArrayEquals(new int[]{0, 300}, ext[0]);
+        assertEquals(700, alloc.freeCount());
+    }
+
+    @Test
+    void testBestFitPicksSmallestHole() {
+        ExtentAllocator alloc = new ExtentAllocator(100);
+        int[][] a = alloc.allocate(10);    // 0..9
+        int[][] b = alloc.allocate(5);     // 10..14
+        int[][] c = alloc.allocate(20);    // 15..34
+        alloc.allocate(5);                 // 35..39
+        alloc.free(a[0][0], a[0][1]);      // hole of 10 at 0
+        alloc.free(c[0][0], c[0][1]);      // hole of 20 at 15
+
+        int[][] fit = alloc.allocate(8);
+        assertArrayEquals(new int[]{0, 8}, fit[0]);
+        int[][] bigger = alloc.allocate(15);
+        assertArrayEquals(new int[]{15, 15}, bigger[0]);
+        assertNotNull(b);
+    }
+
+    @Test
+    void testFreedNeighboursCoalesce() {
+        ExtentAllocator alloc = new ExtentAllocator(30);
+        int[][] a = alloc.allocate(10);
+        int[][] b = alloc.allocate(10);
+        int[][] c = alloc.allocate(10);
+        alloc.free(a[0][0], a[0][1]);
+        alloc.free(c[0][0], c[0][1]);
+        alloc.free(b[0][0], b[0][1]);
+
+        int[][] all = alloc.allocate(30);
+        assertEquals(1, all.length);
+        assertArrayEquals(new int[]{0, 30}, all[0]);
+    }
+
+    @Test
+    void testFragmentedSpaceUsesLargestExtentsFirst() {
+        ExtentAllocator alloc = new ExtentAllocator(40);
+        int[][] a = alloc.allocate(10);
+        alloc.allocate(5);
+        int[][] c = alloc.allocate(20);
+        alloc.allocate(5);
+        alloc.free(a[0][0], a[0][1]);
+        alloc.free(c[0][0], c[0][1]);
+
+        int[][] ext = alloc.allocate(25);
+        assertEquals(2, ext.length);
+        assertEquals(20, ext[0][1]);
+        assertEquals(5, ext[1][1]);
+        assertNull(alloc.allocate(6));
+    }
+
+    @Test
+    void testExtendTakesOnlyBlocksRightAfterTheExtent() {
+        ExtentAllocator alloc = new ExtentAllocator(20);
+        int[][] a = alloc.allocate(4);                  //blocks 0-3
+        int[][] b = alloc.allocate(4);                  //blocks 4-7
+        assertEquals(0, alloc.extend(4, 2));            //in use
+        alloc.free(b[0][0], b[0][1]);
+
+        assertEquals(6, alloc.extend(a[0][0] + a[0][1], 6));   //blocks 4-9
+        assertEquals(10, alloc.extend(10, 50));                //only what is free
+        assertNull(alloc.allocate(1));
+    }
+}
@@ -0,0 +1,44 @@
+import ca.concordia.filesystem.datastructures.FreeBlockMap;
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FreeBlockMapTests {
+
+    @Test
+    void testAllocatesEveryBlockOnce() {
+        FreeBlockMap map = new FreeBlockMap(130);
+        boolean[] seen = new boolean[130];
+        for (int i = 0; i < 130; i++) {
+            int blk = map.allocate();
+            assertTrue(blk >= 0 && blk < 130);
+            assertFalse(seen[blk]);
+            seen[blk] = true;
+        }
+        assertEquals(-1, map.allocate());
+        assertEquals(0, map.freeCount());
+    }
+
+    @Test
+    void testFreedBlockIsReused() {
+        FreeBlockMap map = new FreeBlockMap(64);
+        int[] blocks = map.allocate(64);
+        assertNotNull(blocks);
+        map.markFree(37);
+        assertEquals(37, map.allocate());
+        assertNull(map.allocate(1));
+    }
+
+    @Test
+    void testWordsExposeUsedBits() {
+        FreeBlockMap map = new FreeBlockMap(100);
+        map.markUsed(3);
+        map.markUsed(99);
+        assertEquals(1L << 3, map.word(0));
+        assertTrue(map.isUsed(99));
+        assertFalse(map.isUsed(4));
+        assertEquals(98, map.freeCount());
+        //bits past the end of the volume are reported as used
+        assertEquals(-1L << 35, map.word(1));
+    }
+}
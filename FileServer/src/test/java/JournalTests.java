@@ -0,0 +1,310 @@
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.Journal;
+import ca.concordia.filesystem.datastructures.Superblock;
+import ca.concordia.filesystem.device.MemoryBlockDevice;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JournalTests {
+
+    static final Superblock GEOMETRY = new Superblock(512, 8, 32);
+
+    //Simulates power loss: once armed, the write that hits the limit is torn in half and later ones are lost
+    static class CrashingDevice extends MemoryBlockDevice {
+        int writesLeft = -1;
+        long slowFrom = Long.MAX_VALUE, slowTo;     //writes in this range take a millisecond
+
+        CrashingDevice() { super(512, 64 * 1024, false); }
+
+        //What a restart after a crash would find: a copy, so this instance's checkpointer cannot touch it
+        CrashingDevice image() throws IOException {
+            ByteBuffer all = ByteBuffer.allocate((int) capacity());
+            read(0, all);
+            CrashingDevice copy = new CrashingDevice();
+            copy.write(0, all.flip());
+            return copy;
+        }
+
+        @Override
+        public void write(long pos, ByteBuffer src) throws IOException {
+            if (pos >= slowFrom && pos < slowTo) {
+                try { Thread.sleep(1); } catch (InterruptedException ignored) {}
+            }
+            if (writesLeft == 0) {
+                src.position(src.limit());
+                return;
+            }
+            if (writesLeft > 0 && --writesLeft == 0) {
+                ByteBuffer half = src.duplicate();
+                half.limit(half.position() + half.remaining() / 2);
+                super.write(pos, half);
+                src.position(src.limit());
+                return;
+            }
+            super.write(pos, src);
+        }
+    }
+
+    //Fails a write to the metadata home region while log or data writes are not yet flushed
+    static class OrderingDevice extends MemoryBlockDevice {
+        final long metaEnd;
+        boolean unflushed;
+        volatile String violation;
+
+        OrderingDevice(Superblock sb) {
+            super(512, 64 * 1024, false);
+            metaEnd = sb.journalOffset();
+        }
+
+        @Override
+        public synchronized void write(long pos, ByteBuffer src) throws IOException {
+            if (pos >= Superblock.SIZE && pos < metaEnd) {
+                if (unflushed && violation == null) violation = "home write at " + pos + " before the log and data were flushed";
+            } else if (pos >= metaEnd) {
+                unflushed = true;
+            }
+            super.write(pos, src);
+        }
+
+        @Override
+        public synchronized void flush() {
+            unflushed = false;
+        }
+    }
+
+    //While armed, remounts a copy of the volume after every log write, as a crash right after it would
+    static class RemountingDevice extends CrashingDevice {
+        final long logFrom, logTo;
+        volatile boolean armed;
+        volatile int remounts;
+        final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        Check check;
+
+        interface Check { String problem(FileSystemManager fs) throws Exception; }
+
+        RemountingDevice(Superblock sb) {
+            logFrom = sb.journalOffset();
+            logTo = sb.blockOffset(0);
+        }
+
+        @Override
+        public void write(long pos, ByteBuffer src) throws IOException {
+            super.write(pos, src);
+            if (!armed || pos < logFrom || pos >= logTo) return;
+            remounts++;
+            try {
+                FileSystemManager fs = new FileSystemManager(image(), null);
+                String problem = check.problem(fs);
+                if (problem != null) failures.add(problem);
+                fs.close();
+            } catch (Exception e) {
+                failures.add(e.toString());
+            }
+        }
+    }
+
+    //Every free block can be handed out again, i.e. nothing leaked
+    static void assertNoLeaks(FileSystemManager fs) throws Exception {
+        int used = 0;
+        for (String name : fs.listFiles()) used += (fs.fileSize(name) + 511) / 512;
+        fs.createFile("fill");
+        fs.writeFile("fill", new byte[(fs.getSuperblock().getMaxBlocks() - used) * 512]);
+        fs.deleteFile("fill");
+    }
+
+    @Test
+    void testMetadataStaysInTheLogUntilCheckpoint() throws Exception {
+        CrashingDevice disk = new CrashingDevice();
+        FileSystemManager fs = new FileSystemManager(disk, GEOMETRY);
+        fs.createFile("a");
+        fs.writeFile("a", "journaled".getBytes());
+
+        //The file table at its home location still shows an empty slot
+        ByteBuffer entry = ByteBuffer.allocate(Superblock.ENTRY_SIZE);
+        disk.read(GEOMETRY.entryOffset(0), entry);
+        assertEquals(0, entry.get(0));
+        assertTrue(fs.getJournal().used() > 0);
+
+        //Reopening without a clean shutdown replays the log
+        CrashingDevice image = disk.image();
+        FileSystemManager reopened = new FileSystemManager(image, null);
+        assertEquals("journaled", new String(reopened.readFile("a")));
+
+        reopened.createFile("b");
+        reopened.getJournal().checkpoint();
+        assertEquals(0, reopened.getJournal().used());
+        image.read(GEOMETRY.entryOffset(0), entry.clear());
+        assertEquals('a', entry.get(0));
+    }
+
+    @Test
+    void testCrashAtAnyPointLeavesOldOrNewContent() throws Exception {
+        byte[] before = TestSupport.filled(1500, 'o');
+        byte[] after = TestSupport.filled(3000, 'n');
+        for (int crashAt = 1; crashAt < 40; crashAt++) {
+            CrashingDevice disk = new CrashingDevice();
+            FileSystemManager fs = new FileSystemManager(disk, GEOMETRY);
+            fs.createFile("f");
+            fs.writeFile("f", before);
+            fs.createFile("g");
+            fs.writeFile("g", "other".getBytes());
+
+            disk.writesLeft = crashAt;
+            try {
+                fs.writeFile("f", after);
+                fs.deleteFile("g");
+            } catch (IOException ignored) {
+            }
+            disk.writesLeft = -1;
+
+            FileSystemManager reopened = new FileSystemManager(disk.image(), null);
+            byte[] data = reopened.readFile("f");
+            assertTrue(Arrays.equals(before, data) || Arrays.equals(after, data), "crash after write " + crashAt);
+            assertNoLeaks(reopened);
+        }
+    }
+
+    @Test
+    void testLogWrapsAroundAcrossCheckpoints() throws Exception {
+        CrashingDevice disk = new CrashingDevice();
+        FileSystemManager fs = new FileSystemManager(disk, GEOMETRY);
+        Journal journal = fs.getJournal();
+        for (int i = 0; i < 500; i++) {
+            String name = "f" + (i % 5);
+            if (i < 5) fs.createFile(name);
+            fs.writeFile(name, (name + " v" + i).getBytes());
+        }
+        assertTrue(journal.checkpoints() > 0);
+        assertTrue(journal.used() <= journal.capacity());
+
+        FileSystemManager reopened = new FileSystemManager(disk.image(), null);
+        for (int f = 0; f < 5; f++)
+            assertEquals("f" + f + " v" + (495 + f), new String(reopened.readFile("f" + f)));
+        assertNoLeaks(reopened);
+    }
+
+    @Test
+    @Timeout(30)
+    void testConcurrentCommitsShareTransactions() throws Exception {
+        CrashingDevice disk = new CrashingDevice();
+        disk.slowFrom = GEOMETRY.journalOffset();
+        disk.slowTo = GEOMETRY.blockOffset(0);
+        FileSystemManager fs = new FileSystemManager(disk, GEOMETRY);
+        Journal journal = fs.getJournal();
+
+        int threads = 8, writes = 50;
+        for (int t = 0; t < threads; t++) fs.createFile("t" + t);
+        long start = journal.transactions();
+
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String name = "t" + t;
+            Thread w = new Thread(() -> {
+                try {
+                    for (int i = 0; i < writes; i++) fs.writeFile(name, (name + i).getBytes());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            workers.add(w);
+            w.start();
+        }
+        for (Thread w : workers) w.join();
+
+        long txns = journal.transactions() - start;
+        //Each write commits twice (new content, then freeing the old); alone that would be 800 transactions
+        assertTrue(txns < threads * writes, txns + " transactions for " + threads * writes + " writes");
+
+        FileSystemManager reopened = new FileSystemManager(disk.image(), null);
+        for (int t = 0; t < threads; t++)
+            assertEquals("t" + t + (writes - 1), new String(reopened.readFile("t" + t)));
+    }
+
+    @Test
+    void testCheckpointFlushesLogAndDataBeforeHomeWrites() throws Exception {
+        OrderingDevice disk = new OrderingDevice(GEOMETRY);
+        FileSystemManager fs = new FileSystemManager(disk, GEOMETRY);
+        disk.flush();                                //formatting writes home directly
+        for (int i = 0; i < 50; i++) {
+            String name = "f" + (i % 4);
+            if (i < 4) fs.createFile(name);
+            fs.writeFile(name, TestSupport.filled(700, (char) ('a' + i % 26)));
+        }
+        fs.getJournal().checkpoint();
+        assertTrue(fs.getJournal().checkpoints() > 0);
+        assertNull(disk.violation);
+    }
+
+    @Test
+    @Timeout(120)
+    void testTruncateRacingOtherCommitsIsNeverHalfJournalled() throws Exception {
+        Superblock geometry = new Superblock(512, 8, 80);
+        byte[] content = new byte[6 * 512];
+        for (int i = 0; i < content.length; i++) content[i] = (byte) (i * 7 % 251);
+
+        //Whatever the crash point, t is missing or holds a prefix of content, never a mix of two layouts
+        RemountingDevice disk = new RemountingDevice(geometry);
+        disk.check = mounted -> {
+            if (mounted.fileSize("t") == -1) return null;
+            byte[] data = mounted.readFile("t");
+            return Arrays.equals(data, Arrays.copyOf(content, data.length)) ? null : "t holds " + data.length + " mixed bytes";
+        };
+        FileSystemManager fs = new FileSystemManager(disk, geometry);
+
+        AtomicBoolean done = new AtomicBoolean();
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < 3; w++) {
+            String name = "u" + w;
+            fs.createFile(name);
+            Thread writer = new Thread(() -> {
+                try {
+                    for (int i = 0; !done.get(); i++) fs.writeFile(name, (name + i).getBytes());
+                } catch (Exception e) {
+                    disk.failures.add(e.toString());
+                }
+            });
+            writers.add(writer);
+            writer.start();
+        }
+        try {
+            for (int round = 0; round < 300 && disk.failures.isEmpty(); round++) {
+                //Two extents with p in between, so the truncate splits the first and drops the second
+                fs.createFile("t");
+                fs.writeFile("t", Arrays.copyOf(content, 3 * 512));
+                fs.createFile("p");
+                fs.writeFile("p", new byte[512]);
+                fs.write("t", 3 * 512, Arrays.copyOfRange(content, 3 * 512, content.length));
+
+                disk.armed = true;
+                fs.truncate("t", 1000);
+                disk.armed = false;
+                fs.deleteFile("t");
+                fs.deleteFile("p");
+            }
+        } finally {
+            done.set(true);
+            for (Thread w : writers) w.join();
+        }
+        assertTrue(disk.remounts > 0);
+        assertEquals(List.of(), disk.failures);
+    }
+
+    @Test
+    void testVolumeWithoutJournalWritesInPlace() throws Exception {
+        CrashingDevice disk = new CrashingDevice();
+        FileSystemManager fs = new FileSystemManager(disk, new Superblock(512, 8, 32, 0));
+        assertNull(fs.getJournal());
+        fs.createFile("a");
+        fs.writeFile("a", "in place".getBytes());
+
+        FileSystemManager reopened = new FileSystemManager(disk.image(), null);
+        assertEquals(0, reopened.getSuperblock().getJournalBlocks());
+        assertEquals("in place", new String(reopened.readFile("a")));
+    }
+}
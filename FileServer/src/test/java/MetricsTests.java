@@ -0,0 +1,166 @@
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.device.MemoryBlockDevice;
+import ca.concordia.server.*;
+import org.junit.jupiter.api.*;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsTests {
+
+    static final int PORT = 12351;
+
+    //Data writes can be made to stall, so a writer holds its file lock for a while
+    static class StallingDevice extends MemoryBlockDevice {
+        final CountDownLatch stalled = new CountDownLatch(1);
+        volatile long dataFrom = Long.MAX_VALUE;
+        volatile long stallMillis;
+
+        StallingDevice() { super(512, 4 * 1024 * 1024, false); }
+
+        @Override
+        public void write(long pos, ByteBuffer src) throws IOException {
+            if (pos >= dataFrom && stallMillis > 0) {
+                stalled.countDown();
+                try { Thread.sleep(stallMillis); } catch (InterruptedException ignored) {}
+            }
+            super.write(pos, src);
+        }
+    }
+
+    static Map<String, Long> stats(CommandProcessor processor) {
+        String reply = new String(processor.execute("STATS")).trim();
+        assertTrue(reply.startsWith("OK "), reply);
+        Map<String, Long> stats = new HashMap<>();
+        for (String kv : reply.substring(3).split(" ")) {
+            String[] p = kv.split("=");
+            stats.put(p[0], Long.parseLong(p[1]));
+        }
+        return stats;
+    }
+
+    @Test
+    void testStatsCountsCommandsBytesAndDiskIo() throws Exception {
+        FileSystemManager fs = TestSupport.inMemory(4 * 1024 * 1024, 512, 64);
+        CommandProcessor processor = new CommandProcessor(fs);
+        int freeBefore = fs.freeBlocks();
+
+        processor.execute("CREATE a");
+        processor.execute("WRITE a " + "x".repeat(2000));
+        processor.execute("READ a");
+        processor.execute("READ missing");
+        processor.execute("LIST");
+
+        Map<String, Long> s = stats(processor);
+        assertEquals(1, s.get("CREATE.count"));
+        assertEquals(2, s.get("READ.count"));
+        assertEquals(1, s.get("READ.errors"));
+        assertEquals(0, s.get("WRITE.errors"));
+        assertEquals("WRITE a ".length() + 2000 + 1, s.get("WRITE.bytesIn"));
+        assertTrue(s.get("READ.bytesOut") > 2000);
+        assertTrue(s.get("WRITE.diskWrites") > 0);
+        assertTrue(s.get("WRITE.lockHoldMicros") >= 0);
+        assertTrue(s.get("WRITE.p99Micros") <= s.get("WRITE.maxMicros"));
+        assertFalse(s.containsKey("DELETE.count"), "commands that never ran are left out");
+        assertFalse(s.containsKey("STATS.count"));
+
+        assertEquals(freeBefore - 4, s.get("freeBlocks"));
+        assertEquals(63, s.get("freeFiles"));
+        assertTrue(s.get("diskWrites") >= s.get("WRITE.diskWrites"));
+        assertTrue(s.get("lockAcquisitions") >= 2);
+    }
+
+    @Test
+    @Timeout(30)
+    void testLockWaitIsChargedToTheBlockedCommand() throws Exception {
+        StallingDevice disk = new StallingDevice();
+        FileSystemManager fs = TestSupport.inMemory(disk, 64);
+        CommandProcessor processor = new CommandProcessor(fs);
+        processor.execute("CREATE f");
+        processor.execute("WRITE f first");
+
+        disk.dataFrom = fs.getSuperblock().blockOffset(0);
+        disk.stallMillis = 20;
+        Thread writer = new Thread(() -> processor.execute("WRITE f " + "y".repeat(4000)));
+        writer.start();
+        disk.stalled.await();
+        processor.execute("READAT f 0 1");          //needs the lock the writer holds
+        writer.join();
+
+        Map<String, Long> s = stats(processor);
+        assertTrue(s.get("READAT.lockWaitMicros") >= 10_000, s.get("READAT.lockWaitMicros") + " us waiting");
+        assertTrue(s.get("READAT.lockHoldMicros") < s.get("READAT.lockWaitMicros"));
+        assertTrue(s.get("WRITE.lockHoldMicros") >= 20_000);
+        assertTrue(fs.lockWaitNanos() >= 10_000_000L);
+    }
+
+    @Test
+    void testBinaryRequestsShareTheServerMetrics() throws Exception {
+        FileSystemManager fs = TestSupport.inMemory(4 * 1024 * 1024, 512, 64);
+        CommandProcessor processor = new CommandProcessor(fs);
+        BinaryProtocol binary = new BinaryProtocol(fs, processor.getMetrics());
+        binary.execute(BinaryProtocol.CREATE, 1, "b", new byte[0]);
+        binary.execute(BinaryProtocol.APPEND, 2, "b", new byte[100]);
+        binary.execute(BinaryProtocol.READ_RANGE, 3, "b", ByteBuffer.allocate(12).putLong(0).putInt(100).array());
+
+        Map<String, Long> s = stats(processor);
+        assertEquals(1, s.get("CREATE.count"));
+        assertEquals(1, s.get("APPEND.count"));
+        assertEquals(BinaryProtocol.RESPONSE_HEADER + 100, s.get("READAT.bytesOut"));
+    }
+
+    @Test
+    void testHistogramPercentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int v = 1; v <= 100_000; v++) h.record(v);
+        assertEquals(100_000, h.count());
+        assertEquals(100_000, h.max());
+        assertEquals(50_000, h.percentile(50), 50_000 * 0.016);
+        assertEquals(99_000, h.percentile(99), 99_000 * 0.016);
+        assertEquals(99_900, h.percentile(99.9), 99_900 * 0.016);
+        assertEquals(100, new LatencyHistogram() {{ record(100); }}.percentile(50));
+    }
+
+    @Test
+    @Timeout(30)
+    void testMBeanIsPublishedWhileTheServerRuns() throws Exception {
+        FileServer server = new FileServer(PORT, TestSupport.inMemory(4 * 1024 * 1024, 512, 64),
+                new ConnectionDispatcher(ExecutionMode.POOL, 4, 16, 0));
+        Thread t = new Thread(() -> {
+            try { server.start(); } catch (Exception ignored) {}
+        });
+        t.setDaemon(true);
+        t.start();
+
+        Socket s = null;
+        for (int i = 0; i < 100 && s == null; i++) {
+            try { s = new Socket("localhost", PORT); }
+            catch (IOException e) { Thread.sleep(50); }
+        }
+        assertNotNull(s);
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("ca.concordia:type=FileServer,port=" + PORT);
+        try (Socket sock = s;
+             BufferedReader in = new BufferedReader(new InputStreamReader(sock.getInputStream()));
+             PrintWriter out = new PrintWriter(sock.getOutputStream(), true)) {
+            out.println("CREATE m");
+            assertEquals("OK", in.readLine());
+            out.println("STATS");
+            assertTrue(in.readLine().contains("CREATE.count=1"));
+
+            assertEquals(1, mbs.getAttribute(name, "Connections"));
+            assertEquals(63, mbs.getAttribute(name, "FreeFiles"));
+            assertTrue(mbs.getAttribute(name, "Stats").toString().contains("CREATE.count"));
+        }
+        server.stop(500);
+        assertFalse(mbs.isRegistered(name));
+    }
+}
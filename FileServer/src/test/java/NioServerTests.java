@@ -0,0 +1,106 @@
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.server.CommandProcessor;
+import ca.concordia.server.NioServer;
+import org.junit.jupiter.api.*;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NioServerTests {
+
+    static final int PORT = 12347;
+    static NioServer server;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        FileSystemManager fs = TestSupport.inMemory(4 * 1024 * 1024, 512, 64);
+        server = new NioServer(PORT, new CommandProcessor(fs), 2, 2, 64, 256, 1024 * 1024);
+        Thread t = new Thread(() -> {
+            try { server.start(); } catch (IOException ignored) {}
+        });
+        t.setDaemon(true);
+        t.start();
+    }
+
+    @AfterAll
+    static void stopServer() throws Exception {
+        server.stop(1000);
+    }
+
+    static Socket connect() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            try {
+                return new Socket("localhost", PORT);
+            } catch (ConnectException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IOException("server did not start");
+    }
+
+    @Test
+    @Timeout(20)
+    void testCommandsSplitAcrossPacketsAndPipelined() throws Exception {
+        try (Socket s = connect()) {
+            OutputStream out = s.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+
+            out.write("CRE".getBytes());
+            out.flush();
+            Thread.sleep(50);
+            out.write("ATE split\r\n".getBytes());
+            assertEquals("OK", in.readLine());
+
+            //Several commands in one packet are answered in order
+            out.write("WRITE split one\nREAD split\nBOGUS\nREAD split\n".getBytes());
+            assertEquals("OK", in.readLine());
+            assertEquals("OK one", in.readLine());
+            assertEquals("ERROR: unknown command", in.readLine());
+            assertEquals("OK one", in.readLine());
+        }
+    }
+
+    @Test
+    @Timeout(20)
+    void testLinesLongerThanTheInitialBuffer() throws Exception {
+        char[] big = new char[100_000];
+        Arrays.fill(big, 'x');
+        String payload = new String(big);
+
+        try (Socket s = connect()) {
+            PrintWriter out = new PrintWriter(s.getOutputStream(), true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+            out.println("CREATE big");
+            assertEquals("OK", in.readLine());
+            out.println("WRITE big " + payload);
+            assertEquals("OK", in.readLine());
+            out.println("READ big");
+            assertEquals("OK " + payload, in.readLine());
+            out.println("QUIT");
+            assertEquals("OK closing", in.readLine());
+            assertNull(in.readLine());
+        }
+    }
+
+    @Test
+    @Timeout(30)
+    void testManyIdleConnectionsStayServed() throws Exception {
+        List<Socket> idle = new ArrayList<>();
+        try {
+            for (int i = 0; i < 500; i++) idle.add(connect());
+
+            //Idle clients do not hold a worker, so the two workers still answer everyone
+            for (int i = 0; i < idle.size(); i += 50) {
+                Socket s = idle.get(i);
+                new PrintWriter(s.getOutputStream(), true).println("LIST");
+                assertTrue(new BufferedReader(new InputStreamReader(s.getInputStream())).readLine().startsWith("OK"));
+            }
+            assertTrue(server.openConnections() >= 500);
+        } finally {
+            for (Socket s : idle) s.close();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+import ca.concordia.filesystem.FileReadHandle;
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.datastructures.Superblock;
+import ca.concordia.filesystem.device.MemoryBlockDevice;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PartialIOTests {
+
+    //Counts the data bytes written after setup
+    static class CountingDevice extends MemoryBlockDevice {
+        long written;
+
+        CountingDevice(int blockSize, long capacity) { super(blockSize, capacity, false); }
+
+        @Override
+        public void write(long pos, ByteBuffer src) throws IOException {
+            written += src.remaining();
+            super.write(pos, src);
+        }
+    }
+
+    CountingDevice disk;
+    FileSystemManager fs;
+
+    @BeforeEach
+    void setup() throws Exception {
+        //16 data blocks of 512 bytes
+        disk = new CountingDevice(512, 64 * 1024);
+        fs = new FileSystemManager(disk, new Superblock(512, 8, 16));
+    }
+
+    @Test
+    void testWriteAtOffsetOnlyChangesThoseBytes() throws Exception {
+        fs.createFile("f");
+        fs.writeFile("f", TestSupport.filled(2000, 'a'));
+        fs.write("f", 700, "middle".getBytes());
+
+        byte[] expected = TestSupport.filled(2000, 'a');
+        System.arraycopy("middle".getBytes(), 0, expected, 700, 6);
+        assertArrayEquals(expected, fs.readFile("f"));
+        assertEquals("amiddlea", new String(fs.read("f", 699, 8)));
+    }
+
+    @Test
+    void testSmallUpdateOfLargeFileWritesLittle() throws Exception {
+        fs.createFile("big");
+        fs.writeFile("big", TestSupport.filled(6000, 'b'));
+
+        disk.written = 0;
+        fs.write("big", 3000, "x".getBytes());
+        //The touched bytes plus a few metadata records, nowhere near the 6000-byte file
+        assertTrue(disk.written < 1024, "wrote " + disk.written);
+        assertEquals("bxb", new String(fs.read("big", 2999, 3)));
+    }
+
+    @Test
+    void testWritePastEndZeroFillsTheGap() throws Exception {
+        fs.createFile("g");
+        fs.writeFile("g", "head".getBytes());
+        fs.write("g", 1500, "tail".getBytes());
+
+        byte[] data = fs.readFile("g");
+        assertEquals(1504, data.length);
+        assertEquals("head", new String(data, 0, 4));
+        for (int i = 4; i < 1500; i++) assertEquals(0, data[i]);
+        assertEquals("tail", new String(data, 1500, 4));
+    }
+
+    @Test
+    void testChunkedAppendsBuildTheFile() throws Exception {
+        fs.createFile("log");
+        long expectedOffset = 0;
+        for (int i = 0; i < 10; i++) {
+            assertEquals(expectedOffset, fs.append("log", TestSupport.filled(700, (char) ('0' + i))));
+            expectedOffset += 700;
+        }
+        byte[] data = fs.readFile("log");
+        assertEquals(7000, data.length);
+        for (int i = 0; i < 10; i++) assertEquals('0' + i, data[i * 700 + 699]);
+    }
+
+    @Test
+    void testReadClipsAtEndOfFile() throws Exception {
+        fs.createFile("r");
+        fs.writeFile("r", "0123456789".getBytes());
+        assertEquals("789", new String(fs.read("r", 7, 100)));
+        assertEquals(0, fs.read("r", 50, 10).length);
+        assertThrows(Exception.class, () -> fs.read("r", -1, 10));
+    }
+
+    @Test
+    void testTruncateShrinksFreesAndGrowsWithZeros() throws Exception {
+        fs.createFile("t");
+        fs.writeFile("t", TestSupport.filled(8 * 512, 't'));       //half the volume
+        fs.truncate("t", 600);
+        assertArrayEquals(TestSupport.filled(600, 't'), fs.readFile("t"));
+
+        //The freed blocks are usable again
+        fs.createFile("u");
+        fs.writeFile("u", TestSupport.filled(14 * 512 - 1024, 'u'));
+
+        //Bytes cut off inside the last kept block do not come back
+        fs.deleteFile("u");
+        fs.truncate("t", 5000);
+        byte[] data = fs.readFile("t");
+        assertEquals(5000, data.length);
+        assertArrayEquals(TestSupport.filled(600, 't'), Arrays.copyOf(data, 600));
+        for (int i = 600; i < 5000; i++) assertEquals(0, data[i]);
+
+        fs.truncate("t", 0);
+        assertEquals(0, fs.readFile("t").length);
+        fs.createFile("v");
+        fs.writeFile("v", TestSupport.filled(16 * 512, 'v'));
+    }
+
+    @Test
+    void testTooLargeWriteLeavesFileIntact() throws Exception {
+        fs.createFile("f");
+        fs.writeFile("f", TestSupport.filled(1000, 'f'));
+        assertThrows(Exception.class, () -> fs.write("f", 1000, TestSupport.filled(16 * 512, 'x')));
+        assertArrayEquals(TestSupport.filled(1000, 'f'), fs.readFile("f"));
+
+        //Everything the failed write took was given back
+        fs.truncate("f", 0);
+        fs.writeFile("f", TestSupport.filled(16 * 512, 'y'));
+    }
+
+    @Test
+    void testOpenHandleSeesContentFromBeforePartialWrite() throws Exception {
+        fs.createFile("p");
+        fs.writeFile("p", TestSupport.filled(1024, 'o'));
+
+        try (FileReadHandle h = fs.openRead("p")) {
+            fs.write("p", 0, "new".getBytes());
+            fs.append("p", "!".getBytes());
+            assertArrayEquals(TestSupport.filled(1024, 'o'), StreamingReadTests.stream(h, 0, 1024));
+        }
+        assertEquals("newo", new String(fs.read("p", 0, 4)));
+        assertEquals(1025, fs.readFile("p").length);
+    }
+
+    @Test
+    void testPartialWritesSurviveRemount() throws Exception {
+        fs.createFile("m");
+        fs.append("m", "abc".getBytes());
+        fs.write("m", 600, "def".getBytes());
+        fs.truncate("m", 602);
+
+        FileSystemManager reopened = new FileSystemManager(disk, new Superblock(512, 8, 16));
+        byte[] data = reopened.readFile("m");
+        assertEquals(602, data.length);
+        assertEquals("abc", new String(data, 0, 3));
+        assertEquals("de", new String(data, 600, 2));
+    }
+}
@@ -0,0 +1,62 @@
+import ca.concordia.filesystem.FileReadHandle;
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.datastructures.Superblock;
+import ca.concordia.filesystem.device.MemoryBlockDevice;
+import org.junit.jupiter.api.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StreamingReadTests {
+
+    static FileSystemManager fs;
+
+    @BeforeEach
+    void setup() throws Exception {
+        //16 data blocks of 512 bytes
+        fs = new FileSystemManager(new MemoryBlockDevice(512, 64 * 1024, false), new Superblock(512, 8, 16));
+    }
+
+    static byte[] stream(FileReadHandle h, long position, long count) throws Exception {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        assertEquals(count, h.transferTo(position, count, Channels.newChannel(sink)));
+        return sink.toByteArray();
+    }
+
+    @Test
+    void testStreamsAcrossExtents() throws Exception {
+        fs.createFile("a");
+        fs.createFile("b");
+        fs.writeFile("a", TestSupport.filled(1024, 'a'));
+        fs.writeFile("b", TestSupport.filled(512, 'b'));
+        fs.writeFile("a", TestSupport.filled(3000, 'x'));      //no longer fits in place, so it ends up in several extents
+
+        try (FileReadHandle h = fs.openRead("a")) {
+            assertEquals(3000, h.size());
+            assertArrayEquals(TestSupport.filled(3000, 'x'), stream(h, 0, 3000));
+            assertArrayEquals(TestSupport.filled(600, 'x'), stream(h, 1000, 600));
+        }
+    }
+
+    @Test
+    void testOpenHandleKeepsOldContentAcrossOverwriteAndDelete() throws Exception {
+        fs.createFile("f");
+        fs.writeFile("f", TestSupport.filled(4096, 'o'));
+
+        FileReadHandle h = fs.openRead("f");
+        fs.writeFile("f", TestSupport.filled(4096, 'n'));
+        assertArrayEquals(TestSupport.filled(4096, 'n'), fs.readFile("f"));
+        fs.deleteFile("f");
+
+        //8 blocks are still pinned by the handle, so a 9-block file does not fit yet
+        fs.createFile("g");
+        assertThrows(Exception.class, () -> fs.writeFile("g", TestSupport.filled(16 * 512 - 4096 + 512, 'g')));
+        assertArrayEquals(TestSupport.filled(4096, 'o'), stream(h, 0, 4096));
+
+        h.close();
+        fs.writeFile("g", TestSupport.filled(16 * 512, 'g'));
+        assertArrayEquals(TestSupport.filled(16 * 512, 'g'), fs.readFile("g"));
+    }
+}
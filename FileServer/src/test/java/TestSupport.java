@@ -0,0 +1,25 @@
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.datastructures.Superblock;
+import ca.concordia.filesystem.device.MemoryBlockDevice;
+
+import java.util.Arrays;
+
+//Helpers shared by the file system and server tests
+public class TestSupport {
+
+    static byte[] filled(int length, char c) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) c);
+        return data;
+    }
+
+    //A freshly formatted volume held in memory
+    static FileSystemManager inMemory(long size, int blockSize, int maxFiles) throws Exception {
+        return inMemory(new MemoryBlockDevice(blockSize, size, false), maxFiles);
+    }
+
+    //Formats the largest volume the device holds, e.g. one that records or stalls its I/O
+    static FileSystemManager inMemory(MemoryBlockDevice disk, int maxFiles) throws Exception {
+        return new FileSystemManager(disk, Superblock.forVolume(disk.capacity(), disk.blockSize(), maxFiles));
+    }
+}
@@ -0,0 +1,116 @@
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.device.MemoryBlockDevice;
+import ca.concordia.filesystem.device.StorageMode;
+import ca.concordia.filesystem.datastructures.Superblock;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VolumeGeometryTests {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testLargeFileOnLargeBlocks() throws Exception {
+        String vol = dir.resolve("big.dat").toString();
+        FileSystemManager fs = new FileSystemManager(vol, 8L * 1024 * 1024, 4096, 256);
+        assertEquals(4096, fs.getSuperblock().getBlockSize());
+
+        byte[] data = new byte[100_000];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) i;
+        fs.createFile("big.bin");
+        fs.writeFile("big.bin", data);
+        assertArrayEquals(data, fs.readFile("big.bin"));
+    }
+
+    @Test
+    void testReopenKeepsRecordedGeometry() throws Exception {
+        String vol = dir.resolve("geo.dat").toString();
+        FileSystemManager fs = new FileSystemManager(vol, 1024 * 1024, 1024, 100);
+        fs.createFile("keep");
+        fs.writeFile("keep", "persisted".getBytes());
+
+        //The default geometry asked for here is ignored in favour of the superblock
+        FileSystemManager reopened = new FileSystemManager(vol, 10 * 128);
+        Superblock sb = reopened.getSuperblock();
+        assertEquals(1024, sb.getBlockSize());
+        assertEquals(100, sb.getMaxFiles());
+        assertEquals("persisted", new String(reopened.readFile("keep")));
+        assertTrue(Arrays.asList(reopened.listFiles()).contains("keep"));
+    }
+
+    @Test
+    void testOverwriteAndDeleteSurviveReopen() throws Exception {
+        String vol = dir.resolve("dirty.dat").toString();
+        FileSystemManager fs = new FileSystemManager(vol, 256 * 1024, 512, 32);
+        fs.createFile("a");
+        fs.createFile("b");
+        fs.writeFile("a", "first version".repeat(100).getBytes());
+        fs.writeFile("a", "second".getBytes());
+        fs.writeFile("b", "bee".getBytes());
+        fs.deleteFile("b");
+
+        FileSystemManager reopened = new FileSystemManager(vol, 0);
+        assertEquals("second", new String(reopened.readFile("a")));
+        assertArrayEquals(new String[]{"a"}, reopened.listFiles());
+        //every block freed by the overwrite and the delete is available again
+        reopened.createFile("c");
+        reopened.writeFile("c", new byte[(reopened.getSuperblock().getMaxBlocks() - 1) * 512]);
+    }
+
+    @Test
+    void testMappedStorageMatchesFileStorage() throws Exception {
+        String vol = dir.resolve("mapped.dat").toString();
+        Superblock geometry = Superblock.forVolume(2 * 1024 * 1024, 4096, 64);
+        FileSystemManager fs = new FileSystemManager(vol, geometry, 0, StorageMode.MMAP);
+        byte[] data = "mapped ".repeat(3000).getBytes();
+        fs.createFile("m");
+        fs.writeFile("m", data);
+        assertArrayEquals(data, fs.readFile("m"));
+        fs.close();
+
+        FileSystemManager viaFile = new FileSystemManager(vol, geometry, 0, StorageMode.RAF);
+        assertArrayEquals(data, viaFile.readFile("m"));
+        viaFile.close();
+    }
+
+    @Test
+    void testOlderVersionsKeepTheirBitmapRegion() throws Exception {
+        Superblock current = new Superblock(512, 16, 1000, 8);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        current.write(new DataOutputStream(header));
+        byte[] v3 = header.toByteArray();
+        v3[7] = 3;                                           //version field, big-endian
+
+        Superblock old = Superblock.read(new DataInputStream(new ByteArrayInputStream(v3)));
+        assertEquals(3, old.getVersion());
+        assertEquals(current.metadataBytes() + (1000 + 63) / 64 * 8, old.metadataBytes());
+        assertEquals(current.nodeOffset(7), old.nodeOffset(7));
+        assertEquals(Superblock.VERSION, Superblock.read(new DataInputStream(new ByteArrayInputStream(header.toByteArray()))).getVersion());
+    }
+
+    @Test
+    void testZeroedSuperblockIsNotReformatted() throws Exception {
+        MemoryBlockDevice disk = new MemoryBlockDevice(512, 256 * 1024, false);
+        Superblock format = Superblock.forVolume(256 * 1024, 512, 16);
+        FileSystemManager fs = new FileSystemManager(disk, format);
+        fs.createFile("kept");
+        fs.writeFile("kept", "survivor".getBytes());
+        long dataAt = format.blockOffset(0);
+
+        disk.write(0, ByteBuffer.allocate(Superblock.SIZE));
+        Exception e = assertThrows(Exception.class, () -> new FileSystemManager(disk, format));
+        assertTrue(e.getMessage().startsWith("ERROR: corrupt volume"), e.getMessage());
+
+        ByteBuffer data = ByteBuffer.allocate(8);
+        disk.read(dataAt, data);
+        assertEquals("survivor", new String(data.array()));
+    }
+}
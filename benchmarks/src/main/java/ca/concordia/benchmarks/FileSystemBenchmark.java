@@ -0,0 +1,95 @@
+package ca.concordia.benchmarks;
+
+//createFile, readFile and writeFile across file sizes and thread counts
+//Every thread works on its own file, so the numbers show how well independent requests scale rather than
+//how one file serialises; the nested classes fix the thread count so one run covers all levels:
+//  java -jar benchmarks.jar FileSystemBenchmark -p fileSize=4096
+
+import ca.concordia.filesystem.FileSystemManager;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public abstract class FileSystemBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Volume {
+        @Param({"64", "4096", "262144"})
+        int fileSize;
+
+        FileSystemManager fs;
+        byte[] payload;
+        final AtomicInteger threads = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void open() throws Exception {
+            //Room for 32 threads, each holding its file twice while a rewrite is in flight
+            fs = Volumes.memory(64L * Math.max(fileSize, 64 * 1024) + 16L * 1024 * 1024, 256);
+            payload = new byte[fileSize];
+            for (int i = 0; i < fileSize; i++) payload[i] = (byte) ('a' + i % 26);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws Exception {
+            fs.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Worker {
+        String file;
+        String scratch;
+
+        @Setup(Level.Trial)
+        public void open(Volume v) throws Exception {
+            int id = v.threads.getAndIncrement();
+            file = Volumes.name("f", id);
+            scratch = Volumes.name("c", id);
+            v.fs.createFile(file);
+            v.fs.writeFile(file, v.payload);
+        }
+    }
+
+    //Create plus delete: a volume only holds so many names, so a lone create cannot be repeated
+    @Benchmark
+    public void createFile(Volume v, Worker w) throws Exception {
+        v.fs.createFile(w.scratch);
+        v.fs.deleteFile(w.scratch);
+    }
+
+    //Served from the content cache after the first call, as a busy server would see it
+    @Benchmark
+    public void readFile(Volume v, Worker w, Blackhole bh) throws Exception {
+        bh.consume(v.fs.readFile(w.file));
+    }
+
+    //Bypasses the content cache and reads the blocks
+    @Benchmark
+    public void readRange(Volume v, Worker w, Blackhole bh) throws Exception {
+        bh.consume(v.fs.read(w.file, 0, v.fileSize));
+    }
+
+    @Benchmark
+    public void writeFile(Volume v, Worker w) throws Exception {
+        v.fs.writeFile(w.file, v.payload);
+    }
+
+    @Threads(1)
+    public static class Threads1 extends FileSystemBenchmark {
+    }
+
+    @Threads(4)
+    public static class Threads4 extends FileSystemBenchmark {
+    }
+
+    @Threads(16)
+    public static class Threads16 extends FileSystemBenchmark {
+    }
+}
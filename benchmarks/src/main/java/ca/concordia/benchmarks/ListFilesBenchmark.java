@@ -0,0 +1,71 @@
+package ca.concordia.benchmarks;
+
+//listFiles alone and while other threads create and delete files, which takes the directory lock listFiles needs
+
+import ca.concordia.filesystem.FileSystemManager;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class ListFilesBenchmark {
+
+    @Param({"16", "200"})
+    int files;
+
+    FileSystemManager fs;
+    final AtomicInteger writers = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void open() throws Exception {
+        fs = Volumes.memory(16L * 1024 * 1024, 256);
+        for (int i = 0; i < files; i++) {
+            fs.createFile(Volumes.name("f", i));
+            fs.writeFile(Volumes.name("f", i), ("file " + i).getBytes());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws Exception {
+        fs.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Writer {
+        String name;
+
+        @Setup(Level.Trial)
+        public void open(ListFilesBenchmark b) {
+            name = Volumes.name("w", b.writers.getAndIncrement());
+        }
+    }
+
+    @Benchmark
+    @Group("uncontended")
+    @GroupThreads(4)
+    public void list(Blackhole bh) {
+        bh.consume(fs.listFiles());
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(4)
+    public void listWhileChanging(Blackhole bh) {
+        bh.consume(fs.listFiles());
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(2)
+    public void createDelete(Writer w) throws Exception {
+        fs.createFile(w.name);
+        fs.deleteFile(w.name);
+    }
+}
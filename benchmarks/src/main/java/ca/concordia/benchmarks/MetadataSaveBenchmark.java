@@ -0,0 +1,60 @@
+package ca.concordia.benchmarks;
+
+//Cost of committing a metadata change: each op rewrites a one-block file, so the work is dominated by
+//saving its directory entry, extent record and bitmap. Compared with and without the journal, on a heap
+//volume (CPU cost only) and on a file with and without a flush per operation
+
+import ca.concordia.filesystem.Durability;
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.datastructures.Superblock;
+import ca.concordia.filesystem.device.StorageMode;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetadataSaveBenchmark {
+
+    @Param({"true", "false"})
+    boolean journal;
+
+    @Param({"memory", "raf"})
+    String storage;
+
+    @Param({"none", "per_op"})
+    String durability;
+
+    FileSystemManager fs;
+    final byte[][] versions = {"first".getBytes(), "second".getBytes()};
+    int next;
+
+    @Setup(Level.Trial)
+    public void open() throws Exception {
+        //-1 picks the default journal size, 0 writes metadata in place
+        Superblock format = new Superblock(Volumes.BLOCK_SIZE, 256, 4096, journal ? -1 : 0);
+        fs = Volumes.onDisk(StorageMode.valueOf(storage.toUpperCase()), format,
+                Durability.valueOf(durability.toUpperCase()));
+        fs.createFile("meta");
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws Exception {
+        fs.close();
+    }
+
+    @Benchmark
+    public void rewriteSmallFile() throws Exception {
+        fs.writeFile("meta", versions[next ^= 1]);
+    }
+
+    @Benchmark
+    public void createDelete() throws Exception {
+        fs.createFile("tmp");
+        fs.deleteFile("tmp");
+    }
+}
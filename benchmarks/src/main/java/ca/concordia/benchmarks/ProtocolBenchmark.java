@@ -0,0 +1,138 @@
+package ca.concordia.benchmarks;
+
+//Text protocol overhead: CommandProcessor on its own (parsing, dispatch and response encoding), and the same
+//commands over a loopback socket to an in-process FileServer, which adds the connection handler and the
+//network stack. The server uses the blocking front end unless -Dfs.server.frontend=nio is passed with -jvmArgs;
+//-Dfs.bench.port moves it off the default port
+
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.server.CommandProcessor;
+import ca.concordia.server.FileServer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProtocolBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Server {
+        @Param({"16", "1024"})
+        int payloadSize;
+
+        FileSystemManager fs;
+        CommandProcessor processor;
+        FileServer server;
+        int port;
+        String readCommand, writeCommand;
+
+        @Setup(Level.Trial)
+        public void start() throws Exception {
+            fs = Volumes.memory(16L * 1024 * 1024, 64);
+            processor = new CommandProcessor(fs);
+            char[] payload = new char[payloadSize];
+            Arrays.fill(payload, 'x');
+            readCommand = "READ bench";
+            writeCommand = "WRITE bench " + new String(payload);
+            processor.execute("CREATE bench");
+            processor.execute(writeCommand);
+
+            port = Integer.getInteger("fs.bench.port", 12399);
+            server = new FileServer(port, fs);
+            Thread accept = new Thread(() -> {
+                try {
+                    server.start();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }, "bench-server");
+            accept.setDaemon(true);
+            accept.start();
+            awaitListening();
+        }
+
+        private void awaitListening() throws Exception {
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    new Socket("localhost", port).close();
+                    return;
+                } catch (ConnectException e) {
+                    if (attempt == 100) throw new Exception("ERROR: benchmark server did not start on port " + port);
+                    Thread.sleep(50);
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() throws Exception {
+            server.stop(1000);
+        }
+    }
+
+    //One connection per benchmark thread, as a client would keep it
+    @State(Scope.Thread)
+    public static class Connection {
+        Socket socket;
+        BufferedReader in;
+        PrintWriter out;
+
+        @Setup(Level.Trial)
+        public void open(Server s) throws IOException {
+            socket = new Socket("localhost", s.port);
+            socket.setTcpNoDelay(true);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())), true);
+        }
+
+        String call(String command) throws IOException {
+            out.println(command);
+            return in.readLine();
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            call("QUIT");
+            socket.close();
+        }
+    }
+
+    @Benchmark
+    public byte[] executeRead(Server s) {
+        return s.processor.execute(s.readCommand);
+    }
+
+    @Benchmark
+    public byte[] executeWrite(Server s) {
+        return s.processor.execute(s.writeCommand);
+    }
+
+    @Benchmark
+    public byte[] executeList(Server s) {
+        return s.processor.execute("LIST");
+    }
+
+    //Rejected before it reaches the file system: the cost of parsing alone
+    @Benchmark
+    public byte[] executeMalformed(Server s) {
+        return s.processor.execute("WRITEAT bench notanumber x");
+    }
+
+    @Benchmark
+    public void loopbackRead(Server s, Connection c, Blackhole bh) throws IOException {
+        bh.consume(c.call(s.readCommand));
+    }
+
+    @Benchmark
+    public void loopbackWrite(Server s, Connection c, Blackhole bh) throws IOException {
+        bh.consume(c.call(s.writeCommand));
+    }
+}
@@ -0,0 +1,42 @@
+package ca.concordia.benchmarks;
+
+import ca.concordia.filesystem.CommitFlusher;
+import ca.concordia.filesystem.Durability;
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.datastructures.Superblock;
+import ca.concordia.filesystem.device.BlockDevice;
+import ca.concordia.filesystem.device.MemoryBlockDevice;
+import ca.concordia.filesystem.device.StorageMode;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+//Fresh volumes for each trial so results do not depend on what an earlier run left behind
+final class Volumes {
+
+    static final int BLOCK_SIZE = 4096;
+
+    private Volumes() {
+    }
+
+    //Heap volume: measures the file system itself, not the disk
+    static FileSystemManager memory(long totalSize, int maxFiles) throws Exception {
+        Superblock format = Superblock.forVolume(totalSize, BLOCK_SIZE, maxFiles);
+        BlockDevice device = new MemoryBlockDevice(BLOCK_SIZE, format.volumeBytes(), false);
+        return new FileSystemManager(device, format, new CommitFlusher(device, Durability.NONE, 500, 64));
+    }
+
+    //Volume in a temporary file, deleted when the JVM exits
+    static FileSystemManager onDisk(StorageMode mode, Superblock format, Durability durability) throws Exception {
+        Path file = Files.createTempFile("fs-bench", ".dat");
+        Files.delete(file);
+        file.toFile().deleteOnExit();
+        BlockDevice device = mode.open(file.toString(), format, format.volumeBytes());
+        return new FileSystemManager(device, format, new CommitFlusher(device, durability, 500, 64));
+    }
+
+    //File names are limited to 11 characters
+    static String name(String prefix, int i) {
+        return prefix + i;
+    }
+}